@@ -0,0 +1,214 @@
+package com.gtwm.sound;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only file of NLP results kept between runs, so text that has been sonified before
+ * does not have to go through the CoreNLP pipeline again.
+ *
+ * Word records hold the sentiment class of a single word. Sentence records hold the words,
+ * POS tags, lemmas and sentiment values of one sentence. The file starts with the model
+ * version it was written with and is discarded when that version changes.
+ */
+public class AnnotationStore {
+
+    // Default location, next to the WordNet dictionary
+    static final File DEFAULT_FILE = new File(WordNet.DIRECTORY, "singling-nlp.cache");
+
+    private static final int MAGIC = 0x534E4C50; // SNLP
+
+    private static final byte WORD_RECORD = 'W';
+    private static final byte SENTENCE_RECORD = 'S';
+
+    // Keys longer than this do not fit a modified UTF-8 record and are not stored
+    private static final int MAX_KEY_LENGTH = 16384;
+
+    private final File file;
+    private final String modelVersion;
+
+    // Loaded from the file on first use
+    private Map<String, Integer> words;
+    private Map<String, TokenTable> sentences;
+    private DataOutputStream out;
+
+    public AnnotationStore(File file, String modelVersion) {
+        this.file = file;
+        this.modelVersion = modelVersion;
+    }
+
+    public synchronized Integer getWordSentiment(String word) {
+        load();
+        return words.get(word);
+    }
+
+    public synchronized void putWordSentiment(String word, int sentiment) {
+        load();
+        if (word.length() > MAX_KEY_LENGTH || words.containsKey(word)) {
+            return;
+        }
+        words.put(word, sentiment);
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeByte(WORD_RECORD);
+            out.writeUTF(word);
+            out.writeByte(sentiment);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized TokenTable getSentence(String text) {
+        load();
+        return sentences.get(text);
+    }
+
+    public synchronized void putSentence(String text, TokenTable tokens) {
+        load();
+        if (text.length() > MAX_KEY_LENGTH || sentences.containsKey(text)) {
+            return;
+        }
+        sentences.put(text, tokens);
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeByte(SENTENCE_RECORD);
+            out.writeUTF(text);
+            tokens.write(out);
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int size() {
+        load();
+        return words.size() + sentences.size();
+    }
+
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Read every complete record, drop a partly written one left by an interrupted run,
+     * and open the file for appending
+     */
+    private void load() {
+        if (words != null) {
+            return;
+        }
+        words = new HashMap<>();
+        sentences = new HashMap<>();
+        long validLength = 0;
+
+        if (file.exists()) {
+            try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+                 DataInputStream in = new DataInputStream(counter)) {
+                if (in.readInt() == MAGIC && in.readUTF().equals(modelVersion)) {
+                    validLength = counter.count;
+                    while (true) {
+                        byte kind = in.readByte();
+                        String key = in.readUTF();
+                        if (kind == WORD_RECORD) {
+                            words.put(key, (int) in.readByte());
+                        } else if (kind == SENTENCE_RECORD) {
+                            sentences.put(key, TokenTable.read(in));
+                        } else {
+                            break;
+                        }
+                        validLength = counter.count;
+                    }
+                } else {
+                    System.out.println("NLP cache " + file + " was written by another model version, starting a new one");
+                }
+            } catch (EOFException e) {
+                // End of file, or a record cut short
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            if (validLength == 0) {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)));
+                out.writeInt(MAGIC);
+                out.writeUTF(modelVersion);
+                out.flush();
+            } else {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(validLength);
+                }
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+        } catch (IOException e) {
+            // Keep working from memory only
+            e.printStackTrace();
+            out = null;
+        }
+        System.out.println("NLP cache " + file + ": " + words.size() + " words, " + sentences.size() + " sentences");
+    }
+
+    /**
+     * Tracks how many bytes have been consumed so the last complete record can be found
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
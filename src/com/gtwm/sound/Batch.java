@@ -0,0 +1,229 @@
+package com.gtwm.sound;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sonifies text files without the GUI, using settings saved by "Save Settings as...".
+ * Files are composed on a pool of workers sharing the CoreNLP pipeline and WordNet dictionary.
+ *
+ * Usage: batch settings.properties file-or-directory... [-threads n] [-format midi|wav|both] [-out directory]
+ */
+public class Batch {
+
+    private static final String USAGE =
+            "Usage: batch settings.properties file-or-directory... [-threads n] [-format midi|wav|both] [-out directory]";
+
+    private final Properties settings;
+    private final boolean midi;
+    private final boolean wav;
+    private final File outputDirectory;
+
+    /**
+     * @param settings
+     * @param format midi, wav or both
+     * @param outputDirectory null to write next to each input file
+     */
+    public Batch(Properties settings, String format, File outputDirectory) {
+        this.settings = settings;
+        this.midi = !format.equalsIgnoreCase("wav");
+        this.wav = !format.equalsIgnoreCase("midi");
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * @return true if MIDI files are kept
+     */
+    public boolean writesMidi() {
+        return midi;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File settingsFile = null;
+        List<File> inputs = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String format = "midi";
+        File outputDirectory = null;
+
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("-threads") && a + 1 < args.length) {
+                threads = Integer.parseInt(args[++a]);
+            } else if (args[a].equals("-format") && a + 1 < args.length) {
+                format = args[++a];
+            } else if (args[a].equals("-out") && a + 1 < args.length) {
+                outputDirectory = new File(args[++a]);
+            } else if (settingsFile == null) {
+                settingsFile = new File(args[a]);
+            } else {
+                addInputs(new File(args[a]), inputs);
+            }
+        }
+        if (settingsFile == null || inputs.isEmpty()) {
+            System.out.println(USAGE);
+            return;
+        }
+        if (outputDirectory != null) {
+            outputDirectory.mkdirs();
+        }
+
+        Properties settings = SettingsFile.load(settingsFile);
+
+        // Fail before starting if the settings cannot be read
+        SettingsFile.toBuilder(settings);
+
+        Batch batch = new Batch(settings, format, outputDirectory);
+        try {
+            batch.run(inputs, threads);
+        } finally {
+            WordNet.getInstance().close();
+        }
+    }
+
+    /**
+     * @param input a text file, or a directory of .txt files
+     * @param inputs
+     */
+    private static void addInputs(File input, List<File> inputs) {
+        if (input.isDirectory()) {
+            File[] files = input.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.isFile() && file.getName().toLowerCase().endsWith(".txt")) {
+                        inputs.add(file);
+                    }
+                }
+            }
+        } else {
+            inputs.add(input);
+        }
+    }
+
+    /**
+     * Sonify the files on a pool of threads and print a summary
+     * @param inputs
+     * @param threads
+     * @return number of files that failed
+     */
+    public int run(List<File> inputs, int threads) {
+        // Load models once before timing the files
+        long start = System.currentTimeMillis();
+        SentimentService.getInstance().getPipeline();
+        WordNet.getInstance().getDictionary();
+        System.out.println("Loaded CoreNLP and WordNet in " + (System.currentTimeMillis() - start) + " ms");
+
+        start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Result>> futures = new ArrayList<>();
+        for (final File input : inputs) {
+            futures.add(pool.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return sonify(input);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        // Summary
+        int failed = inputs.size() - results.size();
+        long bytes = 0;
+        long busy = 0;
+        System.out.println(String.format("%-50s %12s %10s  %s", "File", "Bytes", "ms", "Result"));
+        for (Result result : results) {
+            System.out.println(String.format("%-50s %12d %10d  %s", result.input.getName(), result.bytes, result.millis,
+                    result.error == null ? "OK" : result.error));
+            if (result.error != null) {
+                failed++;
+            }
+            bytes += result.bytes;
+            busy += result.millis;
+        }
+        System.out.println(inputs.size() + " files, " + failed + " failed, " + bytes + " bytes in " + elapsed + " ms on " +
+                threads + " threads, " + (elapsed > 0 ? bytes * 1000 / elapsed : bytes) + " bytes/s, " +
+                (results.isEmpty() ? 0 : busy / results.size()) + " ms per file");
+        return failed;
+    }
+
+    /**
+     * Compose one file and write MIDI and/or WAV
+     * @param input
+     * @return
+     */
+    Result sonify(File input) {
+        Result result = new Result(input);
+        long start = System.currentTimeMillis();
+        try (MappedTextReader reader = new MappedTextReader(input)) {
+            result.bytes = reader.length();
+
+            // MIDI and WAV are written while the file is composed
+            NoteSink sink;
+            if (midi && wav) {
+                // The renderer first, it fails if the synthesizer's stream is not available
+                WavRenderer renderer = new WavRenderer(output(input, ".wav"));
+                sink = new TeeSink(new MidiFileWriter(output(input, ".mid")), renderer);
+            } else if (wav) {
+                sink = new WavRenderer(output(input, ".wav"));
+            } else {
+                sink = new MidiFileWriter(output(input, ".mid"));
+            }
+            new ChunkedComposer(SettingsFile.toBuilder(settings)).compose(reader, sink);
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.error = e.toString();
+        }
+        result.millis = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    /**
+     * @param input
+     * @param extension
+     * @return output file named after the input
+     */
+    private File output(File input, String extension) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        File directory = outputDirectory != null ? outputDirectory : input.getAbsoluteFile().getParentFile();
+        return new File(directory, name + extension);
+    }
+
+    /**
+     * Outcome of one file
+     */
+    static class Result {
+        final File input;
+        long bytes;
+        long millis;
+        String error;
+
+        Result(File input) {
+            this.input = input;
+        }
+    }
+}
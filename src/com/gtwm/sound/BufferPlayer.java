@@ -0,0 +1,92 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaEventListener;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequencer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Plays a NoteBuffer on the default sequencer and synthesizer.
+ * Lyric and marker events are passed to the same listeners SinglingPlayer uses,
+ * so words are highlighted and NLP data is printed as the music plays.
+ */
+public class BufferPlayer implements MetaEventListener {
+
+    private static final int META_END_OF_TRACK = 0x2F;
+
+    private Sequencer sequencer;
+    private long pausedAt;
+
+    // Highlight lyrics and output markers as music is played
+    private LyricParserListener lpl = new LyricParserListener();
+    private MarkerParserListener mpl = new MarkerParserListener();
+
+    /**
+     *
+     * @param buffer
+     * @throws MidiUnavailableException
+     * @throws InvalidMidiDataException
+     */
+    public synchronized void play(NoteBuffer buffer) throws MidiUnavailableException, InvalidMidiDataException {
+        stop();
+        sequencer = MidiSystem.getSequencer();
+        sequencer.open();
+        sequencer.setSequence(buffer.toSequence());
+        sequencer.addMetaEventListener(this);
+        sequencer.start();
+    }
+
+    @Override
+    public void meta(MetaMessage meta) {
+        switch (meta.getType()) {
+            case NoteBuffer.META_LYRIC:
+                lpl.onLyricParsed(new String(meta.getData(), StandardCharsets.UTF_8));
+                break;
+            case NoteBuffer.META_MARKER:
+                mpl.onMarkerParsed(new String(meta.getData(), StandardCharsets.UTF_8));
+                break;
+            case META_END_OF_TRACK:
+                stop();
+                break;
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return sequencer != null && sequencer.isRunning();
+    }
+
+    public synchronized boolean isPaused() {
+        return sequencer != null && sequencer.isOpen() && !sequencer.isRunning();
+    }
+
+    public synchronized void pause() {
+        if (isPlaying()) {
+            pausedAt = sequencer.getTickPosition();
+            sequencer.stop();
+        }
+    }
+
+    public synchronized void resume() {
+        if (isPaused()) {
+            sequencer.setTickPosition(pausedAt);
+            sequencer.start();
+        }
+    }
+
+    /**
+     * Stop playing and release the sequencer
+     */
+    public synchronized void stop() {
+        if (sequencer != null) {
+            sequencer.removeMetaEventListener(this);
+            if (sequencer.isOpen()) {
+                sequencer.stop();
+                sequencer.close();
+            }
+            sequencer = null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.gtwm.sound;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Composes a text of any length a few paragraphs at a time. Each chunk is annotated and composed, then its notes are
+ * passed to the sink and dropped, so memory depends on the chunk size rather than the length of the text.
+ * Chunks end where the CoreNLP sentence splitter starts a sentence, and sentences are annotated one at a time either way,
+ * so the result is the same as composing the whole text at once. Only a sentence longer than four chunks is split.
+ */
+public class ChunkedComposer {
+
+    // Characters per chunk, override with -Dsingling.chunkSize
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final Composer.ComposerBuilder builder;
+    private int chunkSize = Integer.getInteger("singling.chunkSize", DEFAULT_CHUNK_SIZE);
+
+    /**
+     * @param builder settings to compose with, always composed with the MIDI backend. The builder is copied.
+     */
+    public ChunkedComposer(Composer.ComposerBuilder builder) {
+        this.builder = builder.copy().withBackend(ScoreWriter.Backend.MIDI);
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Compose all of the input into the sink
+     * @param input
+     * @param sink
+     * @return number of chunks composed
+     * @throws IOException
+     */
+    public int compose(Reader input, NoteSink sink) throws IOException {
+        long start = System.currentTimeMillis();
+        Composer composer = builder.build();
+        NoteBuffer.Reader notes = ((MidiScoreWriter) composer.getScore()).getBuffer().reader();
+
+        TextChunker chunker = new TextChunker(input, chunkSize);
+        int chunks = 0;
+        long characters = 0;
+        String chunk;
+        while ((chunk = chunker.next()) != null) {
+            characters += chunk.length();
+            composeChunk(composer, chunk, notes, sink);
+            chunks++;
+        }
+        sink.finish();
+
+        System.out.println("Composed " + characters + " characters in " + chunks + " chunks in " +
+                (System.currentTimeMillis() - start) + " ms");
+        return chunks;
+    }
+
+    /**
+     * @param composer
+     * @param text
+     * @param notes reader of the composer's buffer
+     * @param sink
+     * @throws IOException
+     */
+    private void composeChunk(Composer composer, String text, NoteBuffer.Reader notes, NoteSink sink) throws IOException {
+        composer.processString(text);
+        notes.drain(sink);
+        sink.flush(composer.getEarliestTick());
+    }
+}
@@ -1,31 +1,29 @@
 package com.gtwm.sound;
 
-import edu.mit.jwi.Dictionary;
-import edu.mit.jwi.IDictionary;
 import edu.mit.jwi.item.*;
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.neural.rnn.RNNCoreAnnotations;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.sentiment.SentimentCoreAnnotations;
-import edu.stanford.nlp.simple.Document;
-import edu.stanford.nlp.simple.Sentence;
-import edu.stanford.nlp.trees.Tree;
-import edu.stanford.nlp.util.CoreMap;
 import org.jfugue.pattern.Pattern;
 import org.jfugue.theory.Note;
 
-import java.io.File;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import javax.sound.midi.Sequence;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  *
  */
 public class Composer {
 
+    // Number of composed sentences remembered, override with -Dsingling.segmentCacheSize
+    private static final int DEFAULT_SEGMENT_CACHE_SIZE = 2000;
+
     // Starting settings
 
     // How long to hold each note for
@@ -90,11 +88,13 @@ public class Composer {
     private int ordering;
     private List<String> orderings;
 
-    // Initialise pattern
-    private Pattern pattern;
+    // Receives the composition, a Staccato pattern or a MIDI sequence
+    private ScoreWriter.Backend backend;
+    private ScoreWriter score;
 
-    // Keep track of pattern timestamp
-    private double patternCurrentTime;
+    // Keep track of pattern timestamp in hundredths of a whole note, and time added since it was last rounded
+    private long patternCurrentTime;
+    private double pendingTime;
 
     // Exclusion words that will get a pass from the this processor
     private Set<String> passingWords;
@@ -102,14 +102,36 @@ public class Composer {
     // List of transformation instructions
     private List<TransformationManager.Instruction> instructions;
 
+    // Instructions compiled for the composition in progress, indexed by trigger
+    private TransformationManager.RuleIndex rules = new TransformationManager.RuleIndex(new TransformationManager.CompiledInstruction[0]);
+
     // # of lexnames for words
     private int lexCount;
 
-    // JWI object
-    private IDictionary dict;
-    private String wordNetDirectory;
-    private String path;
-    private URL url;
+    // Direction of each setting kept in range
+    private final Map<Setting, Direction> directions = new EnumMap<>(Setting.class);
+
+    // Compose sentences in parallel
+    private boolean parallel;
+    private ComposerBuilder settings;
+
+    // Sentences composed on their own, reused when the same sentence is composed again with the same settings.
+    // Keyed by the hash of the settings followed by the hash of the sentence
+    private static final LRUCache<String, Segment> segmentCache =
+            new LRUCache<>(Integer.getInteger("singling.segmentCacheSize", DEFAULT_SEGMENT_CACHE_SIZE));
+
+    // Index of the first token of the table being composed, when a text is composed in parts
+    private int tokenBase;
+
+    // LGCs of each token, looked up before composing in parallel mode
+    private long[] lexFiles;
+
+    // While composing a sentence on its own: whether it has set note settings and pitch bend yet,
+    // and whether it used the ones carried over from the previous sentence before that
+    private boolean settingsKnown = true;
+    private boolean pitchBendKnown = true;
+    private boolean settingsRead;
+    private boolean pitchBendRead;
 
     private enum POStags {
         CC, CD, DT, EX, FW, IN, JJ, JJR, JJS, LS, MD, NN, NNS, NNP, NNPS, PDT, POS, PRP, PRP$, RB, RBR, RBS, RP, SYM, TO, UH, VB, VBD, VBG, VBN, VBP, VBZ, WDT, WP, WP$, WRB;
@@ -120,6 +142,16 @@ public class Composer {
      * @param builder
      */
     private Composer(ComposerBuilder builder) {
+        this(builder, null);
+    }
+
+    /**
+     * @param builder
+     * @param score where to write the composition, null to create one for the backend
+     */
+    private Composer(ComposerBuilder builder, ScoreWriter score) {
+        this.settings = builder;
+        this.parallel = builder.parallel;
         this.baseNoteLength = builder.baseNoteLength;
         this.baseInstrument = builder.baseInstrument;
         this.baseFrequency = builder.baseFrequency;
@@ -132,6 +164,7 @@ public class Composer {
         this.ordering = builder.ordering;
         this.instructions = builder.instructions;
         this.passingWords = builder.passingWords;
+        this.backend = builder.backend;
 
         //orderings = new ArrayList<>();
         this.orderings = builder.orderings;
@@ -144,29 +177,25 @@ public class Composer {
         // Set settings to base values
         resetSettings();
 
-        // Create JFuge pattern
-        pattern = new Pattern();
-        pattern.setVoice(0);
-        pattern.setInstrument(instrument);
-        pattern.setTempo((int) tempo);
+        // Create JFugue pattern or MIDI sequence
+        if (score != null) {
+            this.score = score;
+        } else if (backend == ScoreWriter.Backend.MIDI) {
+            this.score = new MidiScoreWriter(instrument, (int) tempo);
+        } else {
+            this.score = new StaccatoScoreWriter(instrument, (int) tempo);
+        }
         patternCurrentTime = 0;
         volume = 10200d;
-
-        // Construct URL to WordNet Dictionary directory on the computer
-        wordNetDirectory = "WordNet-3.0";
-        path = wordNetDirectory + File.separator + "dict";
-        url = null;
-        try {
-            url = new URL("file", null, path);
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        }
     }
 
     /**
      *
      */
     public static class ComposerBuilder {
+        // Read once, so an unknown value is reported once
+        private static final ScoreWriter.Backend DEFAULT_BACKEND = backendProperty();
+
         private double baseNoteLength;
         private double baseFrequency;
         private double baseOctaves;
@@ -185,6 +214,8 @@ public class Composer {
         private List<String> orderings;
         private List<TransformationManager.Instruction> instructions;
         private Set<String> passingWords;
+        private ScoreWriter.Backend backend;
+        private boolean parallel;
 
         public ComposerBuilder() {
             this.baseVolume = 10200d;
@@ -201,6 +232,48 @@ public class Composer {
             instructions = new ArrayList<>();
 
             passingWords = new HashSet<>();
+
+            // Note buffer unless run with -Dsingling.backend=staccato
+            backend = DEFAULT_BACKEND;
+
+            // Sentences composed one after another unless run with -Dsingling.parallel=true
+            parallel = Boolean.getBoolean("singling.parallel");
+        }
+
+        private ComposerBuilder(ComposerBuilder other) {
+            this.baseNoteLength = other.baseNoteLength;
+            this.baseFrequency = other.baseFrequency;
+            this.baseOctaves = other.baseOctaves;
+            this.baseTempo = other.baseTempo;
+            this.baseInstrument = other.baseInstrument;
+            this.restLength = other.restLength;
+            this.restLengthLineBreak = other.restLengthLineBreak;
+            this.baseVolume = other.baseVolume;
+            this.baseAttack = other.baseAttack;
+            this.baseDecay = other.baseDecay;
+            this.pitchBend = other.pitchBend;
+            this.basePan = other.basePan;
+            this.operationType = other.operationType;
+            this.isWord = other.isWord;
+            this.ordering = other.ordering;
+            this.orderings = other.orderings;
+            this.instructions = other.instructions;
+            this.passingWords = other.passingWords;
+            this.backend = other.backend;
+            this.parallel = other.parallel;
+        }
+
+        /**
+         * @return the backend named by -Dsingling.backend, or MIDI if it is not one
+         */
+        private static ScoreWriter.Backend backendProperty() {
+            String name = System.getProperty("singling.backend", "midi");
+            try {
+                return ScoreWriter.Backend.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Unknown backend '" + name + "', use midi or staccato. Using midi");
+                return ScoreWriter.Backend.MIDI;
+            }
         }
 
         public ComposerBuilder setNoteLength(double noteLength) {
@@ -263,15 +336,63 @@ public class Composer {
             return this;
         }
 
+        public ComposerBuilder withBackend(ScoreWriter.Backend backend) {
+            this.backend = backend;
+            return this;
+        }
+
+        /**
+         * Compose the sentences of a text in parallel, the result is the same as composing them in order
+         * @param parallel
+         * @return
+         */
+        public ComposerBuilder composeInParallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
         public Composer build() {
             return new Composer(this);
         }
+
+        /**
+         * @return a builder with the same settings, changing it leaves this one as it is
+         */
+        public ComposerBuilder copy() {
+            return new ComposerBuilder(this);
+        }
+
+        public ScoreWriter.Backend getBackend() {
+            return backend;
+        }
+
+        /**
+         * Everything that changes how a text is composed, not how the result is stored or how fast it is made
+         * @return
+         */
+        String fingerprint() {
+            StringBuilder fingerprint = new StringBuilder();
+            fingerprint.append(baseNoteLength).append(',').append(baseFrequency).append(',').append(baseOctaves)
+                    .append(',').append(baseTempo).append(',').append(baseInstrument).append(',').append(restLength)
+                    .append(',').append(restLengthLineBreak).append(',').append(baseVolume).append(',').append(baseAttack)
+                    .append(',').append(baseDecay).append(',').append(pitchBend).append(',').append(basePan)
+                    .append(',').append(operationType).append(',').append(isWord).append(',').append(ordering)
+                    .append(',').append(orderings);
+            for (TransformationManager.Instruction i : instructions) {
+                fingerprint.append('\n').append(i.mod).append('|').append(i.modOperator).append('|').append(i.modValue)
+                        .append('|').append(i.soundMod).append('|').append(i.soundModValue).append('|').append(i.changeMode)
+                        .append('|').append(i.sentimentType).append('|').append(i.instructionStatus);
+            }
+            fingerprint.append('\n').append(new TreeSet<>(passingWords));
+            return fingerprint.toString();
+        }
     }
 
     /**
      * Set variables to base values
      */
     public void resetSettings() {
+        settingsKnown = true;
         noteLength = baseNoteLength;
         frequency = baseFrequency;
         instrument = baseInstrument;
@@ -301,12 +422,17 @@ public class Composer {
             this.max = max;
         }
 
-        public double keepInRange(double value) {
+        /**
+         * @param value
+         * @param direction range state of the composition using the setting
+         * @return value reflected back into the range
+         */
+        public double keepInRange(double value, Direction direction) {
             if (value < this.min) {
-                this.directionRollingAverage = (this.directionRollingAverage - 1d) / 2d;
-                if (this.directionRollingAverage < -0.8) {
-                    //System.out.println(this.toString() + " too low at " + value + ", swapping direction. RA = " + this.directionRollingAverage);
-                    this.direction = !this.direction;
+                direction.rollingAverage = (direction.rollingAverage - 1d) / 2d;
+                if (direction.rollingAverage < -0.8) {
+                    //System.out.println(this.toString() + " too low at " + value + ", swapping direction. RA = " + direction.rollingAverage);
+                    direction.up = !direction.up;
                 }
                 double returnValue = this.min + (this.min - value);
                 if (returnValue > this.min && returnValue < this.max) {
@@ -316,10 +442,10 @@ public class Composer {
                     return (Math.abs(returnValue) % (this.max - this.min)) + this.min;
                 }
             } else if (value > this.max) {
-                this.directionRollingAverage = (this.directionRollingAverage + 1d) / 2d;
-                if (this.directionRollingAverage > 0.8) {
-                    //System.out.println(this.toString() + " too high at " + value + ", swapping direction. RA = " + this.directionRollingAverage);
-                    this.direction = !this.direction;
+                direction.rollingAverage = (direction.rollingAverage + 1d) / 2d;
+                if (direction.rollingAverage > 0.8) {
+                    //System.out.println(this.toString() + " too high at " + value + ", swapping direction. RA = " + direction.rollingAverage);
+                    direction.up = !direction.up;
                 }
                 double returnValue = this.max - (value - this.max);
                 if (returnValue > this.min && returnValue < this.max) {
@@ -334,158 +460,659 @@ public class Composer {
             }
         }
 
-        public boolean getDirection() {
-            return this.direction;
-        }
+        private final double min;
+
+        private final double max;
+
+    }
 
-        private double min;
+    /**
+     * Which way a setting is heading, kept per composition so compositions can run at the same time
+     */
+    static class Direction {
+        private boolean up = true;
 
-        private double max;
+        private double rollingAverage = 0d;
 
-        private boolean direction = true;
+        public boolean getDirection() {
+            return up;
+        }
+    }
 
-        private double directionRollingAverage = 0d;
+    /**
+     * @param setting
+     * @param value
+     * @return value kept within the range of the setting
+     */
+    private double keepInRange(Setting setting, double value) {
+        Direction direction = directions.get(setting);
+        if (direction == null) {
+            direction = new Direction();
+            directions.put(setting, direction);
+        }
+        return setting.keepInRange(value, direction);
+    }
 
+    TransformationManager.CompiledInstruction[] compileRules() {
+        TransformationManager.CompiledInstruction[] compiled = TransformationManager.compile(instructions);
+        rules = new TransformationManager.RuleIndex(compiled);
+        return compiled;
     }
 
     /**
-     * Turn the input string into a sound string that can be played by jFugue
+     * Earliest tick anything composed from now on can start at, so that notes before it can be written out.
+     * Only known for the MIDI backend.
+     * @return 0 if not known
+     */
+    public long getEarliestTick() {
+        if (!(score instanceof MidiScoreWriter)) {
+            return 0;
+        }
+        // Words move voices to the running time, characters keep to their voice
+        return ((MidiScoreWriter) score).earliestTick(isWord ? currentTime() : Double.MAX_VALUE);
+    }
+
+    /**
+     * Compose the input one sentence at a time as the stream is read, instead of all at once like processString.
+     * The score then holds the sentences composed so far.
      * @param input
+     * @param lookAhead number of sentences annotated ahead of the one being composed
      * @return
      */
-    public Pattern processString(String input) {
+    public SentenceStream stream(String input, int lookAhead) {
+        compileRules();
+        return new SentenceStream(input, lookAhead);
+    }
 
-        // Construct the Dictionary object and open it
-        dict = new Dictionary(url);
-        try {
-            dict.open();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Sentences of a text composed into the score one at a time. Sentences are annotated on a background thread,
+     * up to lookAhead sentences ahead of the composer.
+     */
+    public class SentenceStream {
+        private final String input;
+        private final BlockingQueue<AnnotatedSentence> annotated;
+        private final Thread annotator;
+        private AnnotatedSentence nextSentence;
+        private int composed;
+
+        private SentenceStream(final String input, int lookAhead) {
+            this.input = input;
+            annotated = new ArrayBlockingQueue<>(Math.max(1, lookAhead));
+            annotator = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Characters are composed all at once
+                        if (isWord) {
+                            SentimentService service = SentimentService.getInstance();
+                            for (String sentenceText : service.splitSentences(input)) {
+                                TokenTable tokens = service.annotateSentence(sentenceText);
+                                annotated.put(new AnnotatedSentence(tokens, lookupLexFiles(tokens, null), null));
+                            }
+                        }
+                        annotated.put(AnnotatedSentence.END);
+                    } catch (InterruptedException e) {
+                        // Stream closed
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        // Wait for room so the composer always sees the error
+                        try {
+                            annotated.put(new AnnotatedSentence(null, null, e));
+                        } catch (InterruptedException closed) {
+                            // Stream closed
+                        }
+                    }
+                }
+            }, "Sentence annotator");
+            annotator.setDaemon(true);
+            annotator.start();
         }
 
-        // Create CoreNLP document object
-        Document doc = new Document(input);
+        /**
+         * @return true if there is another sentence, waits for it to be annotated
+         */
+        public boolean hasNext() {
+            if (nextSentence == null) {
+                try {
+                    nextSentence = annotated.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                if (nextSentence.error != null) {
+                    throw nextSentence.error;
+                }
+            }
+            return nextSentence != AnnotatedSentence.END || (!isWord && composed == 0);
+        }
 
-        // Position of word
-        int wordPosition;
+        /**
+         * @return true if hasNext() will not wait
+         */
+        public boolean isReady() {
+            return nextSentence != null || annotated.peek() != null;
+        }
 
-        // Part-of-speech variable
-        char posletter;
-        String postag;
+        /**
+         * Compose the next sentence into the score
+         */
+        public void next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (!isWord) {
+                processString(input);
+            } else {
+                TokenTable tokens = nextSentence.tokens;
+                lexFiles = nextSentence.lexFiles;
+                nextSentence = null;
+                composeSentences(tokens);
+            }
+            composed++;
+        }
+
+        /**
+         * @return number of sentences composed so far
+         */
+        public int getComposed() {
+            return composed;
+        }
+
+        /**
+         * Stop annotating sentences that will not be composed
+         */
+        public void close() {
+            annotator.interrupt();
+        }
+    }
+
+    /**
+     * A sentence annotated ahead of composition
+     */
+    private static class AnnotatedSentence {
+        static final AnnotatedSentence END = new AnnotatedSentence(null, null, null);
+
+        final TokenTable tokens;
+        final long[] lexFiles;
+        final RuntimeException error;
+
+        AnnotatedSentence(TokenTable tokens, long[] lexFiles, RuntimeException error) {
+            this.tokens = tokens;
+            this.lexFiles = lexFiles;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Turn the input string into a sound string that can be played by jFugue.
+     * Calling it again carries on composing after the previous input.
+     * @param input
+     * @return
+     */
+    public ScoreWriter processString(String input) {
 
         // Sonifying words
         if (isWord) {
 
-            // Iterate sentences in input text
-            for (Sentence sent : doc.sentences()) {
+            // Annotate on all cores in parallel mode
+            ForkJoinPool pool = parallel ? ForkJoinPool.commonPool() : null;
+            TokenTable tokens = pool != null ? SentimentService.getInstance().annotate(input, pool)
+                    : SentimentService.getInstance().annotate(input);
+            composeTokens(tokens, pool);
 
-                // Find words in sentence
-                List<String> words = sent.words();
+        // Per character operation
+        } else {
+            // Parse instruction values once rather than for every note
+            compileRules();
 
-                // Iterate words in sentence
-                for (String word : words) {
+            StringBuilder lastWord = new StringBuilder();
 
-                    // CoreNLP is case sensitive
-                    //word = word.toLowerCase();
+            for (int charIndex = 0; charIndex < input.length(); charIndex++) {
+                char ch = input.charAt(charIndex);
+                char upperCh = Character.toUpperCase(ch);
+                String charString = String.valueOf(ch);
+                // A = 1, B = 2, ...
+                String lastCharString;
+                int charNum = orderings.get(ordering).indexOf(upperCh) + 1;
 
-                    // Get position of word
-                    wordPosition = words.indexOf(word);
+                lastWord.append(upperCh);
+                score.token(charIndex);
 
-                    // Penntree Bank tag
-                    postag = sent.posTag(wordPosition);
+                sonifyCharacter(lastWord, score, charNum, ch);
+            }
+        }
 
-                    // First letter of pos tag per Penntree Bank notation is used to query WordNet
-                    //posletter = sent.posTag(wordPosition).charAt(0);
+        System.out.println(score);
+        return score;
+    }
 
-                    // Give pos tag of "S" if punctuation is found
-                    if (java.util.regex.Pattern.matches("[\\p{Punct}\\p{IsPunctuation}]", word)) {
-                        //sonifyWord(word, sent.lemma(wordPosition), 'S', pattern);
-                        //sonifyWord(word, sent.lemma(wordPosition), "SYM", pattern);
-                        sonifyWord(word, sent.lemma(wordPosition), POStags.SYM, pattern);
+    /**
+     * Sonify annotated words, carrying on after anything composed before
+     * @param tokens
+     * @param pool look up LGCs and compose sentences on the pool, null to do it in order
+     */
+    void composeTokens(TokenTable tokens, ForkJoinPool pool) {
 
-                    // PassingWord is found
-                    } else if (passingWords.contains(word)) {
-                        pattern.add(" '(" + word + ")");
-                        pattern.add(" #(SA[" + getSentimentAnalysis(word) + "])");
+        // Parse instruction values once rather than for every note
+        TransformationManager.CompiledInstruction[] compiled = compileRules();
 
-                        pattern.add("V0" + " @" + patternCurrentTime);
+        lexFiles = pool != null ? lookupLexFiles(tokens, pool) : null;
 
-                        // Convert freq to MIDI music string using reference note and frequency A4 440hz
-                        int baseMidiNumber = (int) Math.rint(12 * getLog(baseFrequency / 440.0f, 2) + 69.0f);
-                        pattern.add("I[MUSIC_BOX] :PW(" + pitchBend + ") " + baseMidiNumber + "/" + noteLength + "a" + attack + "d" + decay);
+        if (isSentenceIndependent(compiled)) {
+            composeSegments(tokens, pool);
 
-                        // Insert at end of musicstring: Note + Resting gap
-                        //soundString.append("R/" + String.format("%f", noteGap) + " ");
-                        pattern.add("R/" + String.format("%f", noteGap) + " ");
+            // Later input carries on after these tokens
+            tokenBase += tokens.size();
+        } else {
+            // Tempo and base setting changes carry on into later sentences
+            if (pool != null) {
+                System.out.println("Instructions change tempo or base settings, composing sentences in order");
+            }
+            composeSentences(tokens);
+        }
+    }
 
-                        // Reset to base settings
-                        resetSettings();
-                        pattern.add("I[" + instrument + "] ");
-                        pattern.add("V0");
-                        pattern.add(":CE(935," + (int) volume + ")");
-                        pattern.add(":CE(10,64)");
+    /**
+     * Sonify the sentences one after another straight into the score, with the rules compiled last
+     * @param tokens
+     */
+    void composeSentences(TokenTable tokens) {
 
-                        patternCurrentTime = Math.round(patternCurrentTime * 100.0) / 100.0;
-                        patternCurrentTime += noteLength + noteGap;
+        // Iterate sentences in input text
+        for (int sentence = 0; sentence < tokens.sentenceCount(); sentence++) {
+            composeSentence(tokens, sentence);
+        }
 
-                    // Sonify word using WordNet
-                    } else {
-                        //sonifyWord(word, sent.lemma(wordPosition), posletter, pattern);
-                        //sonifyWord(word, sent.lemma(wordPosition), postag, pattern);
-                        sonifyWord(word, sent.lemma(wordPosition), POStags.valueOf(postag), pattern);
-                    }
-                    //System.out.println("Sentiment Analysis (" + word + ") : " + analyse(word));
+        // Later input carries on after these tokens
+        tokenBase += tokens.size();
+    }
+
+    /**
+     * Sonify the words of one sentence, followed by the line break rest and sentence marker
+     * @param tokens
+     * @param sentence
+     */
+    private void composeSentence(TokenTable tokens, int sentence) {
+
+        // Iterate words in sentence
+        for (int wordPosition = tokens.sentenceStart(sentence); wordPosition < tokens.sentenceEnd(sentence); wordPosition++) {
+
+            // Word as written in the text, CoreNLP is case sensitive
+            String word = tokens.word(wordPosition);
+            score.token(tokenBase + wordPosition);
+
+            // Give pos tag of "S" if punctuation is found
+            if (isPunctuation(word)) {
+                sonifyWord(tokens, wordPosition, POStags.SYM, score);
 
-                    // Add rest between words
-                    pattern.add("R/" + String.format("%f", restLength) + " ");
-                    patternCurrentTime += restLength;
-                    patternCurrentTime = Math.round(patternCurrentTime * 100.0) / 100.0;
+            // PassingWord is found
+            } else if (passingWords.contains(word)) {
+                // Played with the settings left by the previous word
+                if (!settingsKnown) {
+                    settingsRead = true;
                 }
+                if (!pitchBendKnown) {
+                    pitchBendRead = true;
+                }
+
+                score.lyric(word, true);
+                score.marker("SA[" + tokens.sentiment(wordPosition) + "]");
+
+                score.voiceAt(0, currentTime());
+
+                // Convert freq to MIDI music string using reference note and frequency A4 440hz
+                int baseMidiNumber = (int) Math.rint(12 * getLog(baseFrequency / 440.0f, 2) + 69.0f);
+                score.instrument("MUSIC_BOX");
+                score.pitchWheel(pitchBend);
+                score.note(baseMidiNumber, noteLength, attack, decay);
+
+                // Insert at end of musicstring: Note + Resting gap
+                //soundString.append("R/" + String.format("%f", noteGap) + " ");
+                score.rest(noteGap);
 
-                // An extra rest on newlines
-                pattern.add("R/" + String.format("%f", restLengthLineBreak) + " ");
-                patternCurrentTime += restLengthLineBreak;
-                patternCurrentTime = Math.round(patternCurrentTime * 100.0) / 100.0;
+                // Reset to base settings
+                resetSettings();
+                score.instrument(instrument);
+                score.voice(0);
+                score.controller(935, (int) volume);
+                score.controller(10, 64);
 
-                // Sentiment Analysis
-                // Add JFugue marker for SinglingPlayer parser to read
-                pattern.add(" #(SENTENCE[" + sent.sentiment() + "])");
+                roundTime();
+                pendingTime += noteLength + noteGap;
+
+            // Sonify word using WordNet
+            } else {
+                // Penntree Bank tag
+                sonifyWord(tokens, wordPosition, POStags.valueOf(tokens.posTag(wordPosition)), score);
             }
 
-        // Per character operation
-        } else {
-            StringBuilder lastWord = new StringBuilder();
+            // Add rest between words
+            score.rest(restLength);
+            pendingTime += restLength;
+            roundTime();
+        }
 
-            for (int charIndex = 0; charIndex < input.length(); charIndex++) {
-                char ch = input.charAt(charIndex);
-                char upperCh = Character.toUpperCase(ch);
-                String charString = String.valueOf(ch);
-                // A = 1, B = 2, ...
-                String lastCharString;
-                int charNum = orderings.get(ordering).indexOf(upperCh) + 1;
+        // An extra rest on newlines
+        score.rest(restLengthLineBreak);
+        pendingTime += restLengthLineBreak;
+        roundTime();
 
-                lastWord.append(upperCh);
+        // Sentiment Analysis
+        // Add JFugue marker for SinglingPlayer parser to read
+        score.marker("SENTENCE[" + tokens.sentenceSentimentName(sentence) + "]");
+    }
+
+    /**
+     * Add the time since the last rounding point, rounded to a hundredth of a whole note
+     */
+    private void roundTime() {
+        patternCurrentTime += Math.round(pendingTime * 100.0);
+        pendingTime = 0;
+    }
+
+    /**
+     * Time of the next word in whole notes, only used on a rounding point
+     * @return
+     */
+    private double currentTime() {
+        return patternCurrentTime / 100d;
+    }
+
+    private static boolean isPunctuation(String word) {
+        return java.util.regex.Pattern.matches("[\\p{Punct}\\p{IsPunctuation}]", word);
+    }
 
-                sonifyCharacter(lastWord, pattern, charNum, ch);
+    /**
+     * Compose each sentence as a separate segment and join the segments in order.
+     * Sentences composed before with the same settings are taken from the segment cache,
+     * so only changed sentences are composed again. Gives the same score as composing the sentences one after another.
+     * @param tokens
+     * @param pool compose missing sentences on the pool, null to compose them in order
+     */
+    private void composeSegments(final TokenTable tokens, ForkJoinPool pool) {
+        long start = System.currentTimeMillis();
+        int sentenceCount = tokens.sentenceCount();
+        MessageDigest digest = sha256();
+        String settingsHash = hash(digest, settings.fingerprint());
+
+        // Compose sentences that are not in the cache assuming they start with the current settings
+        final Carry assumed = new Carry(this);
+        String[] keys = new String[sentenceCount];
+        Segment[] segments = new Segment[sentenceCount];
+        List<Future<Segment>> futures = new ArrayList<>(Collections.<Future<Segment>>nCopies(sentenceCount, null));
+        int reused = 0;
+        for (int sentence = 0; sentence < sentenceCount; sentence++) {
+            keys[sentence] = settingsHash + hash(digest, sentenceKey(tokens, sentence));
+            segments[sentence] = segmentCache.get(keys[sentence]);
+            if (segments[sentence] != null) {
+                reused++;
+            } else if (pool != null) {
+                final int thisSentence = sentence;
+                futures.set(sentence, pool.submit(new Callable<Segment>() {
+                    @Override
+                    public Segment call() {
+                        return composeSegment(tokens, thisSentence, assumed);
+                    }
+                }));
             }
         }
 
-        System.out.println(pattern.toString());
-        return pattern;
+        // Join in order, composing a sentence again if it used settings left by the previous one that differ from the assumed ones
+        Carry incoming = assumed;
+        int recomposed = 0;
+        for (int sentence = 0; sentence < sentenceCount; sentence++) {
+            Segment segment = segments[sentence];
+            if (segment == null) {
+                Future<Segment> future = futures.get(sentence);
+                segment = future == null ? composeSegment(tokens, sentence, incoming) : join(future);
+            }
+            if (!segment.canFollow(incoming)) {
+                segment = composeSegment(tokens, sentence, incoming);
+                recomposed++;
+            }
+            segmentCache.put(keys[sentence], segment);
+
+            segment.recording.replay(score, patternCurrentTime, tokenBase + tokens.sentenceStart(sentence));
+            patternCurrentTime += segment.duration;
+            incoming = segment.carryOut(incoming);
+        }
+        incoming.applyTo(this);
+
+        System.out.println("Composed " + sentenceCount + " sentences" + (pool != null ? " in parallel" : "") + " in " +
+                (System.currentTimeMillis() - start) + " ms, " + reused + " from cache, " + recomposed + " composed again");
+    }
+
+    private static Segment join(Future<Segment> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
     /**
-     *
-     * @param originalWord
-     * @param wordLemma
-     * @param
-     * @param pattern
+     * Everything a sentence is composed from: its words, lemmas, tags and sentiments
+     * @param tokens
+     * @param sentence
+     * @return
+     */
+    private static String sentenceKey(TokenTable tokens, int sentence) {
+        StringBuilder key = new StringBuilder();
+        key.append('\u0000').append(tokens.sentenceSentiment(sentence));
+        for (int t = tokens.sentenceStart(sentence); t < tokens.sentenceEnd(sentence); t++) {
+            key.append('\u0000').append(tokens.word(t))
+                    .append('\u0001').append(tokens.lemma(t))
+                    .append('\u0001').append(tokens.posTag(t))
+                    .append('\u0001').append(tokens.sentiment(t));
+        }
+        return key.toString();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param digest
+     * @param text
+     * @return digest of the text in Base64
+     */
+    static String hash(MessageDigest digest, String text) {
+        return Base64.getEncoder().encodeToString(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Forget sentences composed before
+     */
+    public static void clearSegmentCache() {
+        segmentCache.clear();
+    }
+
+    public static LRUCache<String, ?> getSegmentCache() {
+        return segmentCache;
+    }
+
+    /**
+     * Compose one sentence on its own, starting at time 0
+     * @param tokens
+     * @param sentence
+     * @param incoming settings assumed to be left by the previous sentence
+     * @return
+     */
+    private Segment composeSegment(TokenTable tokens, int sentence, Carry incoming) {
+        ScoreRecording recording = new ScoreRecording(tokens.sentenceStart(sentence));
+        Composer worker = new Composer(settings, recording);
+        worker.rules = rules;
+        worker.lexFiles = lexFiles;
+        incoming.applyTo(worker);
+        worker.settingsKnown = false;
+        worker.pitchBendKnown = false;
+
+        worker.composeSentence(tokens, sentence);
+
+        Segment segment = new Segment();
+        segment.recording = recording;
+        segment.duration = worker.patternCurrentTime;
+        segment.assumed = incoming;
+        segment.out = new Carry(worker);
+        segment.settingsSet = worker.settingsKnown;
+        segment.pitchBendSet = worker.pitchBendKnown;
+        segment.settingsRead = worker.settingsRead;
+        segment.pitchBendRead = worker.pitchBendRead;
+        return segment;
+    }
+
+    /**
+     * @param compiled
+     * @return false if any instruction changes a setting for the rest of the text
+     */
+    private static boolean isSentenceIndependent(TransformationManager.CompiledInstruction[] compiled) {
+        for (TransformationManager.CompiledInstruction rule : compiled) {
+            if (rule.soundMod == TransformationManager.Instruction.SoundMods.TEMPO) {
+                return false;
+            }
+            if ((rule.soundMod == TransformationManager.Instruction.SoundMods.NOTE_DURATION ||
+                    rule.soundMod == TransformationManager.Instruction.SoundMods.OCTAVE) &&
+                    rule.changeMode != TransformationManager.Instruction.ChangeModes.SET) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Look up the LGCs of every word on the pool
+     * @param tokens
+     * @param pool
+     * @return
+     */
+    private long[] lookupLexFiles(final TokenTable tokens, ForkJoinPool pool) {
+        final long[] masks = new long[tokens.size()];
+        if (pool == null) {
+            lookupLexFiles(tokens, masks, 0, masks.length);
+            return masks;
+        }
+        final int chunk = 256;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < masks.length; from += chunk) {
+            final int first = from;
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    lookupLexFiles(tokens, masks, first, Math.min(first + chunk, masks.length));
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return masks;
+    }
+
+    private void lookupLexFiles(TokenTable tokens, long[] masks, int from, int to) {
+        for (int t = from; t < to; t++) {
+            String word = tokens.word(t);
+            if (isPunctuation(word)) {
+                masks[t] = lookupLexFiles(tokens.lemma(t), POStags.SYM);
+            } else if (!passingWords.contains(word)) {
+                try {
+                    masks[t] = lookupLexFiles(tokens.lemma(t), POStags.valueOf(tokens.posTag(t)));
+                } catch (IllegalArgumentException e) {
+                    // Unknown tag, reported when the word is composed
+                }
+            }
+        }
+    }
+
+    /**
+     * Settings a word leaves behind that the next word may use before resetting them
      */
-    //public void sonifyWord(String originalWord, String wordLemma, String posTag, Pattern pattern) {
-    public void sonifyWord(String originalWord, String wordLemma, POStags posTag, Pattern pattern) {
+    private static class Carry {
+        final double noteLength;
+        final int attack;
+        final int decay;
+        final long pitchBend;
+
+        Carry(Composer composer) {
+            this(composer.noteLength, composer.attack, composer.decay, composer.pitchBend);
+        }
 
-        // LGCs to use for sonification
-        Set<Integer> wordTypes = new HashSet<>();
+        Carry(double noteLength, int attack, int decay, long pitchBend) {
+            this.noteLength = noteLength;
+            this.attack = attack;
+            this.decay = decay;
+            this.pitchBend = pitchBend;
+        }
+
+        boolean sameSettings(Carry other) {
+            return Double.compare(noteLength, other.noteLength) == 0 && attack == other.attack && decay == other.decay;
+        }
+
+        void applyTo(Composer composer) {
+            composer.noteLength = noteLength;
+            composer.attack = attack;
+            composer.decay = decay;
+            composer.pitchBend = pitchBend;
+        }
+    }
+
+    /**
+     * One sentence composed on its own
+     */
+    private static class Segment {
+        ScoreRecording recording;
+        long duration;
+        Carry assumed;
+        Carry out;
+        boolean settingsSet;
+        boolean pitchBendSet;
+        boolean settingsRead;
+        boolean pitchBendRead;
+
+        /**
+         * @param incoming settings actually left by the previous sentence
+         * @return true if the segment is the same as if it had been composed with them
+         */
+        boolean canFollow(Carry incoming) {
+            return (!settingsRead || assumed.sameSettings(incoming)) && (!pitchBendRead || assumed.pitchBend == incoming.pitchBend);
+        }
+
+        /**
+         * @param incoming
+         * @return settings left for the next sentence
+         */
+        Carry carryOut(Carry incoming) {
+            Carry settingsFrom = settingsSet ? out : incoming;
+            return new Carry(settingsFrom.noteLength, settingsFrom.attack, settingsFrom.decay,
+                    pitchBendSet ? out.pitchBend : incoming.pitchBend);
+        }
+    }
+
+    /**
+     * LGCs of a word as a mask with bit n set for lexicographer file n
+     * @param wordLemma
+     * @param posTag
+     * @return
+     */
+    private static long lookupLexFiles(String wordLemma, POStags posTag) {
+        long wordTypes = 0;
 
         int posNumber = 0;
         char posLetter = posTag.toString().charAt(0);
@@ -499,80 +1126,82 @@ public class Composer {
                 case 'V': posNumber = POS.NUM_VERB; break;
             }
 
-            // Get WordNet word indices
-            IIndexWord idxWord = dict.getIndexWord(wordLemma, POS.getPartOfSpeech(posNumber));
-
             // Store associated list of LGCs if found in WordNet
-            if (idxWord != null) {
-
-                // Get count of word's LGCs
-                int x = idxWord.getWordIDs().size();
-                //System.out.println("Number of wordIDs : " + idxWord.getWordIDs().size());
-
-                // Loop to add all LGCs for querying WordNet
-                for (int i = 0; i < x; i++) {
-                    IWordID wordID = idxWord.getWordIDs().get(i);
-                    IWord word = dict.getWord(wordID);
-
-                    //System.out.println("Id = " + wordID);
-                    //System.out.println(" Lemma = " + word.getLemma());
-                    //System.out.println(" Gloss = " + word.getSynset().getGloss());
-                    ISynset synset = word.getSynset();
-                    //String LexFileName = synset.getLexicalFile().getName();
-                    //System.out.println("Lexical Name : "+ LexFileName + ":" + synset.getLexicalFile().getNumber());
-                    wordTypes.add(synset.getLexicalFile().getNumber());
-                }
-            }
+            wordTypes = WordNet.getInstance().getLexFileMask(wordLemma, POS.getPartOfSpeech(posNumber));
 
         // POS tags other than J, N, R, V
         } else {
             switch (posLetter) {
                 // Modal
-                case 'M': wordTypes.add(45); break;
+                case 'M': wordTypes = 1L << 45; break;
                 // Symbols
-                case 'S' : wordTypes.add(46); break;
+                case 'S' : wordTypes = 1L << 46; break;
                 // Determiner
-                case 'D': wordTypes.add(47); break;
+                case 'D': wordTypes = 1L << 47; break;
                 // Preposition
-                case 'I': wordTypes.add(48); break;
+                case 'I': wordTypes = 1L << 48; break;
                 // Coordinating conjunction / Cardinal number
-                case 'C': wordTypes.add(49); break;
+                case 'C': wordTypes = 1L << 49; break;
                 // Pronouns / Predeterminer / Possessive ending
-                case 'P': wordTypes.add(51); break;
+                case 'P': wordTypes = 1L << 51; break;
                 // To
-                case 'T' : wordTypes.add(52); break;
+                case 'T' : wordTypes = 1L << 52; break;
                 // Wh-determiner / Wh-pronoun / Wh-adverb
-                case 'W' : wordTypes.add(53); break;
+                case 'W' : wordTypes = 1L << 53; break;
                 // Interjection
-                case 'U' : wordTypes.add(54); break;
+                case 'U' : wordTypes = 1L << 54; break;
             }
         }
+        return wordTypes;
+    }
+
+    /**
+     *
+     * @param tokens
+     * @param tokenIndex
+     * @param posTag
+     * @param score
+     */
+    public void sonifyWord(TokenTable tokens, int tokenIndex, POStags posTag, ScoreWriter score) {
+        String originalWord = tokens.word(tokenIndex);
+        String wordLemma = tokens.lemma(tokenIndex);
+
+        // LGCs to use for sonification, bit n set for lexicographer file n
+        long wordTypes = lexFiles != null ? lexFiles[tokenIndex] : lookupLexFiles(wordLemma, posTag);
+
+        // Sentiment of the word in the context of its sentence
+        int sentiment = tokens.sentiment(tokenIndex);
 
         // First LGC of word will inherit the word as lyric item, sentiment analysis value, and other NLP related data
         if (lexCount == 0) {
-            //pattern.add(" '(" + originalWord + ")");
-            pattern.add(" '" + originalWord);
-            pattern.add(" #(SA[" + getSentimentAnalysis(originalWord) + "], " + "LGC" + wordTypes + ", POS[" + posTag + "]" +  ")");
+            score.lyric(originalWord, false);
+            score.marker("SA[" + sentiment + "], " + "LGC" + LexIndex.toString(wordTypes) + ", POS[" + posTag + "]");
         }
 
-        // Iterate through list of LGC
-        for (double lexname : wordTypes) {
+        // Instructions triggered by the word itself, the same for each of its LGCs
+        int[] wordRules = TransformationManager.RuleIndex.merge(
+                TransformationManager.RuleIndex.merge(rules.forPos(posTag.ordinal()), rules.forLength(originalWord.length())),
+                rules.forPunctuation(wordLemma));
+
+        // Iterate through LGCs in ascending order
+        for (long remaining = wordTypes; remaining != 0; remaining &= remaining - 1) {
+            int lexname = Long.numberOfTrailingZeros(remaining);
 
             // Reset to base settings
             resetSettings();
-            pattern.add("I[" + instrument + "] ");
-            pattern.add(":CE(935," + (int) volume + ")");
-            pattern.add(":CE(10," + (int) basePan + ")");
+            score.instrument(instrument);
+            score.controller(935, (int) volume);
+            score.controller(10, basePan);
 
             // Set voice
-            if (wordTypes.size() > 1) {
+            if (Long.bitCount(wordTypes) > 1) {
                 // Skip Voice channel 9 as that is for percussion instruments
                 if (lexCount == 9) {
                     lexCount++;
                 }
 
                 if (lexCount < 15) {
-                    pattern.add("V" + lexCount + " @" + patternCurrentTime);
+                    score.voiceAt(lexCount, currentTime());
                 }
             }
 
@@ -590,56 +1219,14 @@ public class Composer {
                 case MUTE:
                     // Mute tone
                     //noteLength = 0;
-                    pattern.add(":CE(935,0)");
+                    score.controller(935, 0);
                     //volume = 0;
                     break;
             }
 
-            // Go through the instructions queue
-            for (TransformationManager.Instruction i : instructions) {
-
-                // Make changes based on user instructions
-                if (i.mod == TransformationManager.Instruction.Mods.WORDTYPE) {
-                    //if (i.modValue.equals("2. Cardinal number")) { applyMod(i, pattern); }
-                    //System.out.println(originalWord + " posTag index : " + posTag.ordinal());
-                    //System.out.println(originalWord + " modvalue : " + i.modValue);
-                    if (posTag.ordinal() == Integer.parseInt(i.modValue)) { applyMod(i, pattern); }
-
-                } else if (i.mod == TransformationManager.Instruction.Mods.WORDLENGTH) {
-                    switch (i.getModOperator()) {
-                        case EQUALTO:
-                            if (Double.parseDouble(i.getModValue()) == originalWord.length()) {
-                                applyMod(i, pattern);
-                            }
-                            break;
-                        case LARGERTHAN:
-                            if (Double.parseDouble(i.getModValue()) < originalWord.length()) {
-                                applyMod(i, pattern);
-                            }
-                            break;
-                        case LESSTHAN:
-                            if (Double.parseDouble(i.getModValue()) > originalWord.length()) {
-                                applyMod(i, pattern);
-                            }
-                            break;
-                    }
-
-                } else if (i.mod == TransformationManager.Instruction.Mods.LGC) {
-                    if (lexname == Double.parseDouble(i.modValue)) {
-                        //System.out.println("Equal: " + convertToArr.toDoubleArr(item.getValue())[0] + " | " + Double.parseDouble(i.modValue));
-                        applyMod(i, pattern);
-                    }
-
-                } else if (i.mod == TransformationManager.Instruction.Mods.PUNCTUATION) {
-                    //String[] punctuations = convertToArr.toStringArr(item.getValue());
-
-                    //for (String n : punctuations) {
-                    if (wordLemma.equals(i.modValue)) {
-                        //System.out.println("Equal: " + convertToArr.toDoubleArr(item.getValue())[0] + " | " + Double.parseDouble(i.modValue));
-                        applyMod(i, pattern);
-                    }
-                    //}
-                }
+            // Apply the instructions that match this LGC or the word, in instruction order
+            for (int rule : TransformationManager.RuleIndex.merge(wordRules, rules.forLgc(lexname))) {
+                applyMod(rules.get(rule), score);
             }
 
             //frequency = Math.round(frequency * 100.0) / 100.0;
@@ -679,6 +1266,7 @@ public class Composer {
 
             // Find pitch using midi note number
             pitchBend = Math.round(8192 + 4096 * 12 * getLog(frequency / (440.0f * Math.pow(2.0f, ((double) midiNumber - 69.0f) / 12.0f)), 2));
+            pitchBendKnown = true;
             //System.out.println("Pitch bend: " + pitchBend);
             //System.out.println("Frequency: " + frequency);
             //System.out.println("Midi Number: " + midiNumber);
@@ -698,7 +1286,7 @@ public class Composer {
             final double semitone = 1.059463;
             int halfstepsThird=0, halfstepsFifth=0;
 
-            switch (getSentimentAnalysis(originalWord)) {
+            switch (sentiment) {
                 case 0:
                     halfstepsThird = 3;
                     halfstepsFifth = 6;
@@ -735,9 +1323,8 @@ public class Composer {
             //System.out.println("Perfect Fifth Midi Num: " + midiNumPerfectFifth);
             //System.out.println("Perfect Fifth Pitch bend: " + pitchBendPerfectFifth);
 
-            pattern.add(":PW(" + pitchBend + ") " + midiNumber +
-                    "+" + midiNumThird +
-                    "+" + midiNumFifth + "/" + noteLength + "a" + attack + "d" + decay);
+            score.pitchWheel(pitchBend);
+            score.chord(midiNumber, midiNumThird, midiNumFifth, noteLength, attack, decay);
 
             //pattern.add(":PW(" + pitchBend + ") " + midiNumber + "/" + noteLength + "a" + attack + "d" + decay);
 
@@ -767,11 +1354,16 @@ public class Composer {
         }
 
         // Note gap
-        pattern.add("R/" + String.format("%f", noteGap) + " ");
-        pattern.add("V0");
+        score.rest(noteGap);
+        score.voice(0);
+
+        // A word without LGCs keeps the note length left by the previous word
+        if (wordTypes == 0 && !settingsKnown) {
+            settingsRead = true;
+        }
 
-        patternCurrentTime = Math.round(patternCurrentTime * 100.0) / 100.0;
-        patternCurrentTime += noteLength + noteGap;
+        roundTime();
+        pendingTime += noteLength + noteGap;
 
         lexCount = 0;
     }
@@ -779,11 +1371,11 @@ public class Composer {
     /**
      *
      * @param lastWord
-     * @param pattern
+     * @param score
      * @param charNum
      * @param ch
      */
-    public void sonifyCharacter(StringBuilder lastWord, Pattern pattern, double charNum, char ch) {
+    public void sonifyCharacter(StringBuilder lastWord, ScoreWriter score, double charNum, char ch) {
         double targetOctave = Math.ceil((charNum / 26d) * octaves); //26
         frequency = baseFrequency; // = convertToArr.toDoubleArr(item.getValue())[0]+1 * baseFrequency;
 
@@ -797,39 +1389,13 @@ public class Composer {
                 break;
             case MUTE:
                 // Mute tone
-                pattern.add(":CE(935,0)");
+                score.controller(935, 0);
                 break;
         }
 
-        // Go through the instructions queue
-        for (TransformationManager.Instruction i : instructions) {
-
-            // The main logic part of the program
-            // Make changes based on user instructions
-            if (i.mod == TransformationManager.Instruction.Mods.CHARACTER) {
-                //System.out.println("AEIOUaeiou".indexOf(ch));
-                if (i.modValue.equals("vowels") && "AEIOUaeiou".indexOf(ch) != -1) {
-                    applyMod(i, pattern);
-                } else if (i.modValue.equals("consonants") && "AEIOUaeiou".indexOf(ch) < 0) {
-                    applyMod(i, pattern);
-                } else if (i.modValue.equals("uppercase") && Character.isUpperCase(ch)) {
-                    applyMod(i, pattern);
-                    //System.out.println("uppercase");
-                } else if (i.modValue.equals("lowercase") && Character.isLowerCase(ch)) {
-                    applyMod(i, pattern);
-                    //System.out.println("lowercase");
-                }
-
-            } else if (i.mod == TransformationManager.Instruction.Mods.PUNCTUATION) {
-                //String[] punctuations = convertToArr.toStringArr(item.getValue());
-
-                //for (String n : punctuations) {
-                if (ch == i.modValue.charAt(0)) {
-                    //System.out.println("Equal: " + convertToArr.toDoubleArr(item.getValue())[0] + " | " + Double.parseDouble(i.modValue));
-                    applyMod(i, pattern);
-                }
-                //}
-            }
+        // Apply the CHARACTER and PUNCTUATION instructions that match this character
+        for (int rule : rules.forCharacter(ch)) {
+            applyMod(rules.get(rule), score);
         }
 
         // Normalise to fit in the range
@@ -855,7 +1421,8 @@ public class Composer {
 
         //pattern.add("m" + frequency + "/" + noteLength + "a" + attack + "d" + decay);
         //System.out.println("Convert frequency: " + frequency + ", note length: " + noteLength);
-        pattern.add(":PW(" + pitchBend + ") " +  midiNumber + "/" + noteLength + "a" + attack + "d" + decay);
+        score.pitchWheel(pitchBend);
+        score.note(midiNumber, noteLength, attack, decay);
 
         //pattern.add(" '" + ch);
 
@@ -879,67 +1446,68 @@ public class Composer {
         //	theNoteGap = theNoteGap * 0.5;
         //}
         //soundString.append("+R/" + String.format("%f", noteGap) + " "); // Note + Resting gap
-        pattern.add("+R/" + String.format("%f", noteGap) + " "); // Note + Resting gap
+        score.harmonicRest(noteGap); // Note + Resting gap
 
         // Reset to base settings
         resetSettings();
         //soundString.append("I[" + instrument + "] ");
-        pattern.add("I[" + instrument + "] ");
-        pattern.add("V0");
-        pattern.add(":CE(935," + (int) volume + ")");
-        pattern.add(":CE(10,64)");
+        score.instrument(instrument);
+        score.voice(0);
+        score.controller(935, (int) volume);
+        score.controller(10, 64);
     }
 
 
     /**
      *
      * @param i
-     * @param pattern
+     * @param score
      */
-    public void applyMod(TransformationManager.Instruction i, Pattern pattern) {
+    public void applyMod(TransformationManager.CompiledInstruction i, ScoreWriter score) {
         // Allow sound instructions to be played if notes are set to mute in default settings
-        if (defaultNoteOperation == noteOperationType.MUTE) { pattern.add(":CE(935,10200)"); }
+        if (defaultNoteOperation == noteOperationType.MUTE) { score.controller(935, 10200); }
+
+        if (i.soundMod == null) {
+            return;
+        }
 
         switch (i.soundMod) {
             case TEMPO:
-                Setting settingTempo = Setting.TEMPO;
                 //if (lexCount <= 0) {
                 if (i.changeMode == TransformationManager.Instruction.ChangeModes.SET) {
-                    tempo = Double.parseDouble(i.soundModValue);
+                    tempo = i.soundNumber;
                     //soundString.append("T" + (int) tempo + " ");
                 } else {
-                    tempo += Double.parseDouble(i.soundModValue);
+                    tempo += i.soundNumber;
                     //baseTempo = tempo;
                     //soundString.append("T" + (int) tempo + " ");
                 }
-                tempo = settingTempo.keepInRange(tempo);
+                tempo = keepInRange(Setting.TEMPO, tempo);
                 baseTempo = tempo;
                 //soundString.append("T" + (int) tempo + " ");
-                pattern.add("T" + (int)tempo);
+                score.tempo((int) tempo);
                 //}
                 break;
 
             case NOTE_DURATION:
-                Setting settingNoteDuration = Setting.NOTE_LENGTH;
                 if (i.changeMode == TransformationManager.Instruction.ChangeModes.SET) {
-                    noteLength = settingNoteDuration.keepInRange(noteLength);
-                    noteLength = Double.parseDouble(i.soundModValue);
+                    noteLength = keepInRange(Setting.NOTE_LENGTH, noteLength);
+                    noteLength = i.soundNumber;
                 } else {
-                    noteLength = settingNoteDuration.keepInRange(noteLength);
-                    noteLength += Double.parseDouble(i.soundModValue);
+                    noteLength = keepInRange(Setting.NOTE_LENGTH, noteLength);
+                    noteLength += i.soundNumber;
                     baseNoteLength = noteLength;
                 }
                 //baseNoteLength = noteLength;
                 break;
 
             case OCTAVE:
-                Setting settingOctaves = Setting.OCTAVES;
                 if (i.changeMode == TransformationManager.Instruction.ChangeModes.SET) {
-                    octaves = settingOctaves.keepInRange(octaves);
-                    octaves = Double.parseDouble(i.soundModValue);
+                    octaves = keepInRange(Setting.OCTAVES, octaves);
+                    octaves = i.soundNumber;
                 } else {
-                    octaves = settingOctaves.keepInRange(octaves);
-                    octaves += Double.parseDouble(i.soundModValue);
+                    octaves = keepInRange(Setting.OCTAVES, octaves);
+                    octaves += i.soundNumber;
                     baseOctaves = octaves;
                 }
                 //baseOctaves = octaves;
@@ -951,17 +1519,16 @@ public class Composer {
                 //	soundString.append("I[" + instrument + "] ");
                 //}
                 //pattern.setInstrument(i.soundModValue);
-                pattern.add("I[" + i.soundModValue + "] ");
+                score.instrument(i.instrument);
                 break;
 
             case VOLUME:
-                Setting settingVolume = Setting.VOLUME;
                 //if (lexCount <= 0) {
-                volume = Double.parseDouble(i.soundModValue);
-                volume = settingVolume.keepInRange(volume);
+                volume = i.soundNumber;
+                volume = keepInRange(Setting.VOLUME, volume);
                 //soundString.append("X[Volume]=" + volume + " ");
                 //pattern.add("X[Volume]=" + volume + " ");
-                pattern.add(":CE(935," + (int) volume + ")");
+                score.controller(935, (int) volume);
                 //}
                 break;
 
@@ -976,17 +1543,16 @@ public class Composer {
                 //	frequency += Double.parseDouble(i.soundModValue);
                 //	baseFrequency = frequency;
                 //}
-                Setting settingsFrequency = Setting.BASE_FREQUENCY;
                 //double midiNoteNumber = Double.parseDouble(i.soundModValue);
 
                 //if (i.changeMode == TransformationManager.Instruction.ChangeModes.SET) {
                 //frequency = Math.pow(2, (midiNoteNumber - 69) / 12) * 440;
-                frequency = Note.getFrequencyForNote(i.soundModValue)*2;
-                frequency = settingsFrequency.keepInRange(frequency);
+                frequency = i.soundNumber;
+                frequency = keepInRange(Setting.BASE_FREQUENCY, frequency);
                 //} else {
                 //double tempFreq = Math.pow(2, (midiNoteNumber - 69) / 12) * 440;
                 //frequency += tempFreq;
-                //	frequency = settingsFrequency.keepInRange(frequency);
+                //	frequency = keepInRange(Setting.BASE_FREQUENCY, frequency);
                 //	baseFrequency = frequency;
                 //}
                 //System.out.println("Change freq to: " + i.soundModValue);
@@ -994,28 +1560,26 @@ public class Composer {
                 break;
 
             case ATTACK:
-                Setting settingsAttack = Setting.ATTACK;
-                attack = Integer.parseInt(i.soundModValue);
-                attack = (int) settingsAttack.keepInRange(attack);
+                attack = i.soundInt;
+                attack = (int) keepInRange(Setting.ATTACK, attack);
                 break;
 
             case DECAY:
-                Setting settingsDecay = Setting.ATTACK;
-                decay = Integer.parseInt(i.soundModValue);
-                decay = (int) settingsDecay.keepInRange(decay);
+                decay = i.soundInt;
+                decay = (int) keepInRange(Setting.ATTACK, decay);
                 break;
 
             case PITCHBEND:
                 if (i.changeMode == TransformationManager.Instruction.ChangeModes.SET) {
-                    pitchBend = Long.parseLong(i.soundModValue);
+                    pitchBend = i.soundLong;
                 } else {
-                    pitchBend += Double.parseDouble(i.soundModValue);
+                    pitchBend += i.soundNumber;
                 }
                 break;
 
             case PAN:
-                pan = Integer.parseInt(i.soundModValue);
-                pattern.add(":CE(10," + pan + ")");
+                pan = i.soundInt;
+                score.controller(10, pan);
                 break;
         }
     }
@@ -1026,19 +1590,25 @@ public class Composer {
      * @return
      */
     public int getSentimentAnalysis(String text) {
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize, ssplit, pos, parse, sentiment");
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-        Annotation annotation = pipeline.process(text);
-        for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
-            Tree tree = sentence.get(SentimentCoreAnnotations.SentimentAnnotatedTree.class);
-            return RNNCoreAnnotations.getPredictedClass(tree);
-        }
-        return 0;
+        return SentimentService.getInstance().getSentiment(text);
     }
 
+    /**
+     * @return the Staccato pattern, null when composing with the MIDI backend
+     */
     public Pattern getPattern() {
-        return pattern;
+        return score instanceof StaccatoScoreWriter ? ((StaccatoScoreWriter) score).getPattern() : null;
+    }
+
+    /**
+     * @return the composition as a MIDI sequence, from either backend
+     */
+    public Sequence getSequence() {
+        return score.getSequence();
+    }
+
+    public ScoreWriter getScore() {
+        return score;
     }
 
     public List<TransformationManager.Instruction> getInstructions() {
@@ -0,0 +1,80 @@
+package com.gtwm.sound;
+
+import java.security.MessageDigest;
+
+/**
+ * Keeps the last few compositions so that playing and then saving the same text with the same settings
+ * only composes it once
+ */
+public class CompositionCache {
+
+    // Number of compositions remembered, override with -Dsingling.compositionCacheSize
+    private static final int DEFAULT_SIZE = 4;
+
+    private final LRUCache<String, Composer> compositions;
+
+    public CompositionCache() {
+        this(Integer.getInteger("singling.compositionCacheSize", DEFAULT_SIZE));
+    }
+
+    public CompositionCache(int size) {
+        compositions = new LRUCache<>(size);
+    }
+
+    /**
+     * Compose the text, or return the composition made before from the same text and settings
+     * @param builder
+     * @param text
+     * @return a composer that has processed the text
+     */
+    public Composer compose(Composer.ComposerBuilder builder, String text) {
+        String key = key(builder, text);
+        Composer composer = compositions.get(key);
+        if (composer != null) {
+            System.out.println("Reusing composition, " + compositions);
+            return composer;
+        }
+        long start = System.currentTimeMillis();
+        composer = builder.build();
+        composer.processString(text);
+        compositions.put(key, composer);
+        System.out.println("Composed in " + (System.currentTimeMillis() - start) + " ms");
+        return composer;
+    }
+
+    /**
+     * @param builder
+     * @param text
+     * @return key of the composition of the text with the builder's current settings, hashed the way the segment cache
+     * hashes sentences so that entries do not hold a copy of the text
+     */
+    public String key(Composer.ComposerBuilder builder, String text) {
+        MessageDigest digest = Composer.sha256();
+        return Composer.hash(digest, builder.getBackend() + "\n" + builder.fingerprint()) + Composer.hash(digest, text);
+    }
+
+    /**
+     * @param key
+     * @return the composition, or null if it is not in the cache
+     */
+    public Composer get(String key) {
+        return compositions.get(key);
+    }
+
+    /**
+     * Remember a composition made elsewhere, such as while streaming
+     * @param key
+     * @param composer a composer that has composed the whole text
+     */
+    public void put(String key, Composer composer) {
+        compositions.put(key, composer);
+    }
+
+    public void clear() {
+        compositions.clear();
+    }
+
+    public LRUCache<String, Composer> getCompositions() {
+        return compositions;
+    }
+}
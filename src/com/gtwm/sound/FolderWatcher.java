@@ -0,0 +1,238 @@
+package com.gtwm.sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a folder and sonifies each text file when it is added or saved, writing MIDI and/or WAV next to it.
+ * A file is composed once its saves have stopped for a moment, and only if its contents have changed.
+ * Sentences that did not change are taken from the composer's caches, so editing a chapter recomposes little of it.
+ *
+ * Usage: watch settings.properties directory [-threads n] [-format midi|wav|both]
+ */
+public class FolderWatcher {
+
+    private static final String USAGE =
+            "Usage: watch settings.properties directory [-threads n] [-format midi|wav|both]";
+
+    // Wait this long after the last change to a file before composing it, override with -Dsingling.watch.debounce
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 1500;
+
+    private final Path directory;
+    private final Batch batch;
+    private final long debounceMillis = Long.getLong("singling.watch.debounce", DEFAULT_DEBOUNCE_MILLIS);
+
+    // Debounce timers, and the workers that limit how many files are composed at once
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService renders;
+
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private final Set<Path> rendering = ConcurrentHashMap.newKeySet();
+
+    // Digest of each file when it was last sonified
+    private final Map<Path, String> digests = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory
+     * @param settings as saved by "Save Settings as..."
+     * @param format midi, wav or both
+     * @param threads most files composed at once
+     */
+    public FolderWatcher(File directory, Properties settings, String format, int threads) {
+        this.directory = directory.toPath().toAbsolutePath();
+        this.batch = new Batch(settings, format, null);
+        this.renders = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    public static void main(String[] args) throws Exception {
+        File settingsFile = null;
+        File directory = null;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        String format = "midi";
+
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("-threads") && a + 1 < args.length) {
+                threads = Integer.parseInt(args[++a]);
+            } else if (args[a].equals("-format") && a + 1 < args.length) {
+                format = args[++a];
+            } else if (settingsFile == null) {
+                settingsFile = new File(args[a]);
+            } else {
+                directory = new File(args[a]);
+            }
+        }
+        if (settingsFile == null || directory == null || !directory.isDirectory()) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        Properties settings = SettingsFile.load(settingsFile);
+
+        // Fail before starting if the settings cannot be read
+        SettingsFile.toBuilder(settings);
+
+        long start = System.currentTimeMillis();
+        SentimentService.getInstance().getPipeline();
+        WordNet.getInstance().getDictionary();
+        System.out.println("Loaded CoreNLP and WordNet in " + (System.currentTimeMillis() - start) + " ms");
+
+        try {
+            new FolderWatcher(directory, settings, format, threads).watch();
+        } finally {
+            WordNet.getInstance().close();
+        }
+    }
+
+    /**
+     * Sonify files that are newer than their MIDI or WAV, then watch for changes until interrupted
+     * @throws IOException
+     */
+    public void watch() throws IOException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + directory);
+            scan(true);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, look at every file
+                        scan(false);
+                    } else {
+                        changed(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    System.out.println(directory + " is no longer available");
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        } finally {
+            timers.shutdownNow();
+            renders.shutdown();
+        }
+    }
+
+    /**
+     * @param onlyStale only files with no output, or output older than the text
+     * @throws IOException
+     */
+    private void scan(boolean onlyStale) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{txt,TXT}")) {
+            for (Path file : files) {
+                if (!onlyStale || isStale(file)) {
+                    changed(file);
+                }
+            }
+        }
+    }
+
+    private boolean isStale(Path file) {
+        String name = file.getFileName().toString();
+        File output = new File(directory.toFile(), name.substring(0, name.lastIndexOf('.')) + (batch.writesMidi() ? ".mid" : ".wav"));
+        return !output.exists() || output.lastModified() < file.toFile().lastModified();
+    }
+
+    /**
+     * Compose the file once it has not changed for the debounce time
+     * @param file
+     */
+    private void changed(final Path file) {
+        if (!Files.isRegularFile(file) || !file.getFileName().toString().toLowerCase().endsWith(".txt")) {
+            return;
+        }
+        ScheduledFuture<?> previous = pending.put(file, timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pending.remove(file);
+                renders.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        render(file);
+                    }
+                });
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * Sonify the file if its contents have changed since it was last sonified
+     * @param file
+     */
+    private void render(Path file) {
+        if (!rendering.add(file)) {
+            // Still composing the last save, try again when it is done
+            changed(file);
+            return;
+        }
+        try {
+            String digest = digest(file);
+            if (digest.equals(digests.get(file))) {
+                return;
+            }
+            Batch.Result result = sonify(file.toFile());
+            if (result.error == null) {
+                digests.put(file, digest);
+                System.out.println("Sonified " + file.getFileName() + ", " + result.bytes + " bytes in " + result.millis + " ms");
+            } else {
+                System.out.println("Could not sonify " + file.getFileName() + ": " + result.error);
+            }
+        } catch (IOException e) {
+            // Removed or still being written, a later event will bring it back
+            e.printStackTrace();
+        } finally {
+            rendering.remove(file);
+        }
+    }
+
+    /**
+     * Write the MIDI and/or WAV of a text file
+     * @param file
+     * @return
+     */
+    Batch.Result sonify(File file) {
+        return batch.sonify(file);
+    }
+
+    private static String digest(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
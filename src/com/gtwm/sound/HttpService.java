@@ -0,0 +1,493 @@
+package com.gtwm.sound;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sonifies text sent over HTTP from other programs on the same machine, without the GUI.
+ *
+ * POST /midi, /wav or /timeline with the text as the body. Settings are taken from the query string,
+ * for example /midi?tempo=200&amp;instrument=VIOLIN, and missing settings take the form's starting values.
+ * A body sent as text/x-java-properties is read as a file saved by "Save Settings as..." with the text in it.
+ * Instructions are sent as text in rules, one per line as read by SettingsFile.parseRules, and passing words in
+ * passingwords. The serialized instructions and lexicons of a saved settings file are refused, and so are requests
+ * from web pages, which carry an Origin header. GET /metrics returns request counts and latencies as JSON.
+ *
+ * Requests wait in a bounded queue for a fixed pool of workers. When the queue is full the request is
+ * answered with 429 Too Many Requests straight away.
+ *
+ * Usage: server [port]
+ */
+public class HttpService {
+
+    private static final int DEFAULT_PORT = 8080;
+
+    // Requests waiting for a worker, override with -Dsingling.server.queueSize
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+
+    // Largest request body, override with -Dsingling.server.maxBody
+    private static final int DEFAULT_MAX_BODY = 16 * 1024 * 1024;
+
+    // Latencies kept for percentiles
+    private static final int RECENT = 1024;
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final int maxBody = Integer.getInteger("singling.server.maxBody", DEFAULT_MAX_BODY);
+
+    // Shared by all workers so a text composed for /midi is not composed again for /wav or /timeline
+    private final CompositionCache compositions = new CompositionCache();
+
+    private final Map<String, Latency> latencies = new LinkedHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+    private final long started = System.currentTimeMillis();
+
+    /**
+     * @param port
+     * @param threads number of workers, override with -Dsingling.server.threads
+     * @param queueSize
+     * @throws IOException
+     */
+    public HttpService(int port, int threads, int queueSize) throws IOException {
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Sonification worker " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        for (String endpoint : Arrays.asList("/midi", "/wav", "/timeline")) {
+            latencies.put(endpoint, new Latency());
+            server.createContext(endpoint, new Queued(endpoint));
+        }
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                send(exchange, 200, "application/json", metrics().getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        // Handlers only queue the request, so they run on the server's own thread
+        server.setExecutor(null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = Integer.getInteger("singling.server.threads", Runtime.getRuntime().availableProcessors());
+
+        // Load models before accepting requests
+        long start = System.currentTimeMillis();
+        SentimentService.getInstance().getPipeline();
+        WordNet.getInstance().getDictionary();
+        System.out.println("Loaded CoreNLP and WordNet in " + (System.currentTimeMillis() - start) + " ms");
+
+        final HttpService service = new HttpService(port, Math.max(1, threads),
+                Integer.getInteger("singling.server.queueSize", DEFAULT_QUEUE_SIZE));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                service.stop();
+                WordNet.getInstance().close();
+            }
+        }));
+        service.start();
+        System.out.println("Listening on http://localhost:" + port + "/ with " + threads + " workers");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return the port listened on, chosen by the system if the service was made with port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop accepting requests and let the workers finish the ones already queued
+     */
+    public void stop() {
+        server.stop(1);
+        workers.shutdown();
+    }
+
+    /**
+     * Queues the request for a worker, or answers 429 when the queue is full
+     */
+    private class Queued implements HttpHandler {
+        private final String endpoint;
+
+        Queued(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "text/plain", "POST the text to sonify\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            // Browsers send an Origin with requests made by web pages, only other programs are served
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                send(exchange, 403, "text/plain", "Requests from web pages are not accepted\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            final long queued = System.nanoTime();
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        process(endpoint, exchange, queued);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 429, "text/plain", "Too many requests\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Compose the request on a worker thread and send the result
+     * @param endpoint
+     * @param exchange
+     * @param queued System.nanoTime() when the request was queued
+     */
+    private void process(String endpoint, HttpExchange exchange, long queued) {
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            Properties settings = readSettings(exchange);
+            if (settings == null) {
+                failed = true;
+                send(exchange, 413, "text/plain", ("Body larger than " + maxBody + " bytes\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (settings.containsKey("instructions") || settings.containsKey("lexicons")) {
+                failed = true;
+                send(exchange, 400, "text/plain", "Serialized instructions and lexicons are not accepted, send rules and passingwords as text\n"
+                        .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            Composer.ComposerBuilder builder = SettingsFile.toBuilder(settings)
+                    .useTransformations(SettingsFile.parseRules(settings.getProperty("rules")))
+                    .excludeWords(SettingsFile.parseWords(settings.getProperty("passingwords")))
+                    .withBackend(ScoreWriter.Backend.MIDI);
+            Composer composer = compositions.compose(builder, settings.getProperty("textinput", ""));
+
+            switch (endpoint) {
+                case "/midi":
+                    send(exchange, 200, "audio/midi", midi(composer));
+                    break;
+                case "/wav":
+                    send(exchange, 200, "audio/wav", wav(composer));
+                    break;
+                default:
+                    send(exchange, 200, "application/json", timeline(composer).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IllegalArgumentException e) {
+            failed = true;
+            send(exchange, 400, "text/plain", (e + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            e.printStackTrace();
+            failed = true;
+            send(exchange, 500, "text/plain", (e + "\n").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            long end = System.nanoTime();
+            latencies.get(endpoint).add((start - queued) / 1000000, (end - queued) / 1000000, failed);
+        }
+    }
+
+    /**
+     * @param exchange
+     * @return settings with the text as textinput, or null if the body is too large
+     * @throws IOException
+     */
+    private Properties readSettings(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            return null;
+        }
+        String text = new String(body, StandardCharsets.UTF_8);
+        Properties settings = new Properties();
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.contains("properties")) {
+            settings.load(new StringReader(text));
+        } else {
+            settings.setProperty("textinput", text);
+        }
+
+        // Query parameters override the body
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    settings.setProperty(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * @param in
+     * @return the body, or null if it is larger than maxBody
+     * @throws IOException
+     */
+    private byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > maxBody) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private byte[] midi(Composer composer) throws IOException {
+        NoteBuffer buffer = ((MidiScoreWriter) composer.getScore()).getBuffer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileWriter writer = new MidiFileWriter(Channels.newChannel(out), buffer.getResolution());
+        buffer.reader().read(writer);
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Render with the software synthesizer into a temporary file, the RIFF sizes are only known at the end
+     * @param composer
+     * @return
+     * @throws IOException
+     */
+    private byte[] wav(Composer composer) throws IOException {
+        File wavFile = File.createTempFile("singling", ".wav");
+        try {
+            WavRenderer.render(((MidiScoreWriter) composer.getScore()).getBuffer(), wavFile);
+            return Files.readAllBytes(wavFile.toPath());
+        } finally {
+            wavFile.delete();
+        }
+    }
+
+    /**
+     * Lyric and marker events in the order they play, with their time in seconds
+     * @param composer
+     * @return JSON
+     */
+    static String timeline(Composer composer) {
+        final NoteBuffer buffer = ((MidiScoreWriter) composer.getScore()).getBuffer();
+        int resolution = buffer.getResolution();
+
+        // Events in tick order, keeping the composed order within a tick
+        List<Integer> events = new ArrayList<>();
+        for (int e = 0; e < buffer.eventCount(); e++) {
+            int type = buffer.eventType(e);
+            if (type == NoteBuffer.TEMPO || type == NoteBuffer.LYRIC || type == NoteBuffer.MARKER) {
+                events.add(e);
+            }
+        }
+        Collections.sort(events, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(buffer.eventTick(a), buffer.eventTick(b));
+            }
+        });
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"resolution\":").append(resolution).append(",\"events\":[");
+        long microsPerQuarter = 500000;
+        long lastTick = 0;
+        double micros = 0;
+        boolean first = true;
+        for (int e : events) {
+            long tick = buffer.eventTick(e);
+            micros += (double) (tick - lastTick) * microsPerQuarter / resolution;
+            lastTick = tick;
+            if (buffer.eventType(e) == NoteBuffer.TEMPO) {
+                microsPerQuarter = buffer.eventData1(e);
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"type\":\"").append(buffer.eventType(e) == NoteBuffer.LYRIC ? "lyric" : "marker")
+                    .append("\",\"tick\":").append(tick)
+                    .append(",\"seconds\":").append(String.format(Locale.ROOT, "%.3f", micros / 1000000))
+                    .append(",\"text\":");
+            quote(json, buffer.eventText(e));
+            json.append('}');
+        }
+        long length = buffer.getTickLength();
+        micros += (double) Math.max(0, length - lastTick) * microsPerQuarter / resolution;
+        json.append("],\"ticks\":").append(length)
+                .append(",\"seconds\":").append(String.format(Locale.ROOT, "%.3f", micros / 1000000)).append("}");
+        return json.toString();
+    }
+
+    private static void quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * @return request counts, latencies and queue state as JSON
+     */
+    public String metrics() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"uptimeSeconds\":").append((System.currentTimeMillis() - started) / 1000)
+                .append(",\"workers\":").append(workers.getMaximumPoolSize())
+                .append(",\"active\":").append(workers.getActiveCount())
+                .append(",\"queued\":").append(workers.getQueue().size())
+                .append(",\"queueCapacity\":").append(workers.getQueue().size() + workers.getQueue().remainingCapacity())
+                .append(",\"rejected\":").append(rejected.get())
+                .append(",\"compositions\":");
+        quote(json, compositions.getCompositions().toString());
+        json.append(",\"endpoints\":{");
+        boolean first = true;
+        for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            quote(json, entry.getKey());
+            json.append(':');
+            entry.getValue().appendTo(json);
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    /**
+     * Send a whole response and close the exchange
+     * @param exchange
+     * @param status
+     * @param contentType
+     * @param body
+     */
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Latency of the requests to one endpoint, in milliseconds from being queued
+     */
+    private static class Latency {
+        private long count;
+        private long errors;
+        private long totalWait;
+        private long total;
+        private long max;
+        private final long[] recent = new long[RECENT];
+
+        synchronized void add(long wait, long millis, boolean failed) {
+            recent[(int) (count % RECENT)] = millis;
+            count++;
+            if (failed) {
+                errors++;
+            }
+            totalWait += wait;
+            total += millis;
+            max = Math.max(max, millis);
+        }
+
+        synchronized void appendTo(StringBuilder json) {
+            long[] sorted = Arrays.copyOf(recent, (int) Math.min(count, RECENT));
+            Arrays.sort(sorted);
+            json.append("{\"count\":").append(count)
+                    .append(",\"errors\":").append(errors)
+                    .append(",\"meanWaitMs\":").append(count == 0 ? 0 : totalWait / count)
+                    .append(",\"meanMs\":").append(count == 0 ? 0 : total / count)
+                    .append(",\"p50Ms\":").append(percentile(sorted, 50))
+                    .append(",\"p95Ms\":").append(percentile(sorted, 95))
+                    .append(",\"maxMs\":").append(max)
+                    .append('}');
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+        }
+    }
+}
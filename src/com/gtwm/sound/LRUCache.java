@@ -0,0 +1,116 @@
+package com.gtwm.sound;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe least-recently-used cache that counts hits, misses and evictions
+ * @param <K>
+ * @param <V>
+ */
+public class LRUCache<K, V> {
+
+    private final LinkedHashMap<K, V> map;
+    private int maxSize;
+
+    // Statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LRUCache(int maxSize) {
+        this.maxSize = maxSize;
+        // Access order so that the eldest entry is the least recently used one
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LRUCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return the cached value, or null if not present
+     */
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    public synchronized void remove(K key) {
+        map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Change the bound, evicting least recently used entries if the cache is now too large
+     * @param maxSize
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        Iterator<K> keys = map.keySet().iterator();
+        while (map.size() > maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0d : (double) hits / lookups;
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + map.size() + "/" + maxSize +
+                " hits=" + hits +
+                " misses=" + misses +
+                " evictions=" + evictions +
+                " hitrate=" + String.format("%.1f%%", getHitRate() * 100);
+    }
+}
@@ -0,0 +1,133 @@
+package com.gtwm.sound;
+
+import edu.mit.jwi.item.POS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped index from (lemma, part of speech) to the set of WordNet lexicographer files
+ * (LGCs) the lemma belongs to, stored as a 64-bit mask with bit n set for lexicographer file n.
+ *
+ * The file is an open-addressing hash table written by LexIndexBuilder:
+ * a header of magic, version, capacity and entry count, followed by capacity slots of
+ * (64-bit key hash, 64-bit LGC mask). A hash of 0 marks an empty slot. Only the hash of
+ * the key is stored, so a lookup is one probe sequence over the mapped file with no allocation.
+ */
+public class LexIndex {
+
+    // Default location, next to the WordNet dictionary
+    static final File DEFAULT_FILE = new File(WordNet.DIRECTORY, "singling-lgc.idx");
+
+    static final int MAGIC = 0x534C4743; // SLGC
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int SLOT_SIZE = 16;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ByteBuffer table;
+    private final int mask;
+    private final int count;
+
+    private LexIndex(ByteBuffer table, int capacity, int count) {
+        this.table = table;
+        this.mask = capacity - 1;
+        this.count = count;
+    }
+
+    /**
+     * Map an index file into memory
+     * @param file
+     * @return
+     * @throws IOException if the file is missing or not a valid index
+     */
+    public static LexIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " is not an LGC index");
+            }
+            int capacity = buffer.getInt(8);
+            int count = buffer.getInt(12);
+            if (Integer.bitCount(capacity) != 1 || channel.size() < HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+                throw new IOException(file + " is truncated");
+            }
+            return new LexIndex(buffer, capacity, count);
+        }
+    }
+
+    /**
+     * @param lemma
+     * @param pos
+     * @return mask of lexicographer file numbers, 0 if the lemma is not in WordNet
+     */
+    public long lookup(CharSequence lemma, POS pos) {
+        long hash = hash(lemma, pos);
+        int slot = (int) hash & mask;
+        while (true) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long slotHash = table.getLong(offset);
+            if (slotHash == hash) {
+                return table.getLong(offset + 8);
+            }
+            if (slotHash == 0) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Lexicographer file numbers of a mask in ascending order, formatted like a list: [3, 29]
+     * @param lexFiles
+     * @return
+     */
+    static String toString(long lexFiles) {
+        StringBuilder sb = new StringBuilder("[");
+        for (long remaining = lexFiles; remaining != 0; remaining &= remaining - 1) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(Long.numberOfTrailingZeros(remaining));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the part of speech and the lemma, normalised the way WordNet
+     * stores index words: lower case with spaces as underscores
+     * @param lemma
+     * @param pos
+     * @return never 0
+     */
+    static long hash(CharSequence lemma, POS pos) {
+        long hash = FNV_OFFSET;
+        hash = (hash ^ pos.getNumber()) * FNV_PRIME;
+        int start = 0;
+        int end = lemma.length();
+        while (start < end && Character.isWhitespace(lemma.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(lemma.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            char c = lemma.charAt(i);
+            c = Character.isWhitespace(c) ? '_' : Character.toLowerCase(c);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,86 @@
+package com.gtwm.sound;
+
+import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Builds the LGC index file read by LexIndex from the WordNet 3.0 dictionary.
+ *
+ * Usage: java -cp Singling.jar com.gtwm.sound.LexIndexBuilder [output file]
+ */
+public class LexIndexBuilder {
+
+    public static void main(String[] args) throws IOException {
+        File output = args.length > 0 ? new File(args[0]) : LexIndex.DEFAULT_FILE;
+        long start = System.currentTimeMillis();
+        int count = build(WordNet.getInstance().getDictionary(), output);
+        System.out.println("Wrote " + count + " entries to " + output + " in " + (System.currentTimeMillis() - start) + " ms");
+        WordNet.getInstance().close();
+    }
+
+    /**
+     * @param dict
+     * @param output
+     * @return number of (lemma, POS) entries written
+     * @throws IOException
+     */
+    static int build(IDictionary dict, File output) throws IOException {
+        // Count entries first to size the table
+        int count = 0;
+        for (POS pos : POS.values()) {
+            Iterator<IIndexWord> words = dict.getIndexWordIterator(pos);
+            while (words.hasNext()) {
+                words.next();
+                count++;
+            }
+        }
+
+        // Keep the table at most half full so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        long[] hashes = new long[capacity];
+        long[] masks = new long[capacity];
+
+        for (POS pos : POS.values()) {
+            Iterator<IIndexWord> words = dict.getIndexWordIterator(pos);
+            while (words.hasNext()) {
+                IIndexWord idxWord = words.next();
+                long lexFiles = 0;
+                for (IWordID wordID : idxWord.getWordIDs()) {
+                    lexFiles |= 1L << dict.getWord(wordID).getSynset().getLexicalFile().getNumber();
+                }
+                long hash = LexIndex.hash(idxWord.getLemma(), pos);
+                int slot = (int) hash & (capacity - 1);
+                while (hashes[slot] != 0 && hashes[slot] != hash) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                hashes[slot] = hash;
+                masks[slot] |= lexFiles;
+            }
+        }
+
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(LexIndex.MAGIC);
+            out.writeInt(LexIndex.VERSION);
+            out.writeInt(capacity);
+            out.writeInt(count);
+            for (int slot = 0; slot < capacity; slot++) {
+                out.writeLong(hashes[slot]);
+                out.writeLong(masks[slot]);
+            }
+        }
+        return count;
+    }
+}
@@ -85,6 +85,9 @@ public class Main extends JFrame {
 
     static Composer composer;
 
+    // Last compositions, shared by Play, Save MIDI and Save WAV
+    static CompositionCache compositions = new CompositionCache();
+
     static List<TransformationManager.Instruction> instructions;
 
     static Set<String> passingWords = new HashSet<String>();
@@ -157,52 +160,39 @@ public class Main extends JFrame {
                             // Get initial settings from user inputs
                             //setBaseValues();
 
-                            // Get word/character value from user
-                            boolean isWord = true;
-                            if (wordRadioButton.isSelected()) {
-                                isWord = true;
-                            } else if (characterRadioButton.isSelected()) {
-                                isWord = false;
-                            }
-
-                            // Get operation type value from user
-                            String operationType = "";
-                            if (lexnamesRadioButton.isSelected()) {
-                                operationType = "LEXNAMEFREQ";
-                            } else if (staticRadioButton.isSelected()) {
-                                operationType = "STATICFREQ";
-                            } else if (muteRadioButton.isSelected()) {
-                                operationType = "MUTE";
-                            }
-
-                            // Create and init Composer
-                            composer = new Composer
-                                    .ComposerBuilder()
-                                    .setInstrument(String.valueOf(setBaseInstrument.getSelectedItem()))
-                                    .setNoteLength(Double.parseDouble(String.valueOf(setDuration.getSelectedItem())))
-                                    .setOctave((double) setOctaves.getValue())
-                                    .setTempo((double) setTempo.getValue())
-                                    .setFrequency((double) setFrequency.getValue())
-                                    .setRestLength(Double.parseDouble(String.valueOf(setRestLengthSpace.getSelectedItem())))
-                                    .setRestLengthLineBreak(Double.parseDouble(String.valueOf(setRestLengthLineBreak.getSelectedItem())))
-                                    .wantWord(isWord)
-                                    .withOperation(operationType)
-                                    .withOrdering(setOrdering.getSelectedIndex())
-                                    .useTransformations(instructions)
-                                    .excludeWords(passingWords)
-                                    .build();
-
-                            // Process user input text
-                            composer.processString(textArea1.getText());
+                            // Create and init Composer from the settings in the form
+                            Composer.ComposerBuilder builder = getComposerBuilder();
 
                             // Init Producer using pattern created by Composer
                             producer.setPlayer();
 
-                            // Pass created sound pattern to producer
-                            producer.setPattern(composer.getPattern());
+                            // Reuse the composition if nothing has changed since it was made
+                            final String text = textArea1.getText();
+                            final String key = compositions.key(builder, text);
+                            composer = compositions.get(key);
+
+                            if (composer == null && builder.getBackend() == ScoreWriter.Backend.MIDI) {
+                                // Start playing as soon as the first sentence is composed, keep the composition once it is complete
+                                final Composer streamed = builder.build();
+                                composer = streamed;
+                                producer.doStreamPlayer(streamed, text, new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        compositions.put(key, streamed);
+                                    }
+                                });
+                            } else {
+                                // Process user input text
+                                if (composer == null) {
+                                    composer = compositions.compose(builder, text);
+                                }
+
+                                // Pass created sound pattern to producer
+                                producer.setScore(composer.getScore());
 
-                            // Start player
-                            producer.doStartPlayer(Double.parseDouble(String.valueOf(setDuration.getSelectedItem())));
+                                // Start player
+                                producer.doStartPlayer(Double.parseDouble(String.valueOf(setDuration.getSelectedItem())));
+                            }
 
                             // Create new NLPConsole
                             //DialogNLPConsole dialogNLPConsole = new DialogNLPConsole();
@@ -262,48 +252,18 @@ public class Main extends JFrame {
                                 //TextSound.runStuff();
                                 //TextSound.doSaveAsMidi(textArea1.getText(), outFilename);
 
-                                boolean isWord = true;
-                                if (wordRadioButton.isSelected()) {
-                                    isWord = true;
-                                } else if (characterRadioButton.isSelected()) {
-                                    isWord = false;
-                                }
-
-                                String operationType = "";
-                                if (lexnamesRadioButton.isSelected()) {
-                                    operationType = "LEXNAMEFREQ";
-                                } else if (staticRadioButton.isSelected()) {
-                                    operationType = "STATICFREQ";
-                                } else if (muteRadioButton.isSelected()) {
-                                    operationType = "MUTE";
-                                }
-
                                 // Create and init Composer
-                                composer = new Composer
-                                        .ComposerBuilder()
-                                        .setInstrument(String.valueOf(setBaseInstrument.getSelectedItem()))
-                                        .setNoteLength(Double.parseDouble(String.valueOf(setDuration.getSelectedItem())))
-                                        .setOctave((double) setOctaves.getValue())
-                                        .setTempo((double) setTempo.getValue())
-                                        .setFrequency((double) setFrequency.getValue())
-                                        .setRestLength(Double.parseDouble(String.valueOf(setRestLengthSpace.getSelectedItem())))
-                                        .setRestLengthLineBreak(Double.parseDouble(String.valueOf(setRestLengthLineBreak.getSelectedItem())))
-                                        .wantWord(isWord)
-                                        .withOperation(operationType)
-                                        .withOrdering(setOrdering.getSelectedIndex())
-                                        .useTransformations(instructions)
-                                        .excludeWords(passingWords)
-                                        .build();
+                                Composer.ComposerBuilder builder = getComposerBuilder();
 
-                                // Process user input text
-                                composer.processString(textArea1.getText());
+                                // Process user input text, or reuse the composition if nothing has changed since it was made
+                                composer = compositions.compose(builder, textArea1.getText());
 
                                 // Create Producer using pattern created by Composer
                                 //Producer producer = new Producer();
                                 producer.setPlayer();
 
                                 // Pass created sound pattern to producer
-                                producer.setPattern(composer.getPattern());
+                                producer.setScore(composer.getScore());
 
                                 // Start player
                                 producer.doSaveAsMidi(textArea1.getText(), outFilename);
@@ -339,41 +299,11 @@ public class Main extends JFrame {
                             System.out.println("Save as file: " + outFilename);
 
                             try {
-                                boolean isWord = true;
-                                if (wordRadioButton.isSelected()) {
-                                    isWord = true;
-                                } else if (characterRadioButton.isSelected()) {
-                                    isWord = false;
-                                }
-
-                                String operationType = "";
-                                if (lexnamesRadioButton.isSelected()) {
-                                    operationType = "LEXNAMEFREQ";
-                                } else if (staticRadioButton.isSelected()) {
-                                    operationType = "STATICFREQ";
-                                } else if (muteRadioButton.isSelected()) {
-                                    operationType = "MUTE";
-                                }
-
                                 // Create and init Composer
-                                composer = new Composer
-                                        .ComposerBuilder()
-                                        .setInstrument(String.valueOf(setBaseInstrument.getSelectedItem()))
-                                        .setNoteLength(Double.parseDouble(String.valueOf(setDuration.getSelectedItem())))
-                                        .setOctave((double) setOctaves.getValue())
-                                        .setTempo((double) setTempo.getValue())
-                                        .setFrequency((double) setFrequency.getValue())
-                                        .setRestLength(Double.parseDouble(String.valueOf(setRestLengthSpace.getSelectedItem())))
-                                        .setRestLengthLineBreak(Double.parseDouble(String.valueOf(setRestLengthLineBreak.getSelectedItem())))
-                                        .wantWord(isWord)
-                                        .withOperation(operationType)
-                                        .withOrdering(setOrdering.getSelectedIndex())
-                                        .useTransformations(instructions)
-                                        .excludeWords(passingWords)
-                                        .build();
+                                Composer.ComposerBuilder builder = getComposerBuilder();
 
-                                // Process user input text
-                                composer.processString(textArea1.getText());
+                                // Process user input text, or reuse the composition if nothing has changed since it was made
+                                composer = compositions.compose(builder, textArea1.getText());
 
                                 // Create Producer using pattern created by Composer
                                 //Producer producer = new Producer();
@@ -381,7 +311,7 @@ public class Main extends JFrame {
                                 producer.setPlayer();
 
                                 // Pass created sound pattern to producer
-                                producer.setPattern(composer.getPattern());
+                                producer.setScore(composer.getScore());
 
                                 // Start player
                                 producer.doSaveAsWAV(textArea1.getText(), outFilename);
@@ -744,56 +674,55 @@ public class Main extends JFrame {
         }
     };
 
-    private static String serialize(List<TransformationManager.Instruction> thisObjectList) {
-        try {
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            ObjectOutputStream so = new ObjectOutputStream(bo);
-            so.writeObject(thisObjectList);
-            so.flush();
-            final byte[] byteArray = bo.toByteArray();
-            return Base64.getEncoder().encodeToString(byteArray);
-        } catch (Exception e) {
-            System.out.println(e);
-        }
-        return null;
-    }
-
-    private static List<TransformationManager.Instruction> deserialize(String serializedObject) {
-        try {
-            byte b[] = Base64.getDecoder().decode(serializedObject);
-            ByteArrayInputStream bi = new ByteArrayInputStream(b);
-            ObjectInputStream si = new ObjectInputStream(bi);
-            return (List<TransformationManager.Instruction>) si.readObject();
-        } catch (Exception e) {
-            System.out.println(e);
+    /**
+     * Composer settings as currently set in the form
+     * @return
+     */
+    Composer.ComposerBuilder getComposerBuilder() {
+        String operationType = "";
+        if (lexnamesRadioButton.isSelected()) {
+            operationType = "LEXNAMEFREQ";
+        } else if (staticRadioButton.isSelected()) {
+            operationType = "STATICFREQ";
+        } else if (muteRadioButton.isSelected()) {
+            operationType = "MUTE";
         }
-        return null;
-    }
 
-    private static String serializeLexicon(Set<String> thisObjectList) {
-        try {
-            ByteArrayOutputStream bo = new ByteArrayOutputStream();
-            ObjectOutputStream so = new ObjectOutputStream(bo);
-            so.writeObject(thisObjectList);
-            so.flush();
-            final byte[] byteArray = bo.toByteArray();
-            return Base64.getEncoder().encodeToString(byteArray);
-        } catch (Exception e) {
-            System.out.println(e);
-        }
-        return null;
+        return new Composer
+                .ComposerBuilder()
+                .setInstrument(String.valueOf(setBaseInstrument.getSelectedItem()))
+                .setNoteLength(Double.parseDouble(String.valueOf(setDuration.getSelectedItem())))
+                .setOctave((double) setOctaves.getValue())
+                .setTempo((double) setTempo.getValue())
+                .setFrequency((double) setFrequency.getValue())
+                .setRestLength(Double.parseDouble(String.valueOf(setRestLengthSpace.getSelectedItem())))
+                .setRestLengthLineBreak(Double.parseDouble(String.valueOf(setRestLengthLineBreak.getSelectedItem())))
+                .wantWord(!characterRadioButton.isSelected())
+                .withOperation(operationType)
+                .withOrdering(setOrdering.getSelectedIndex())
+                .useTransformations(instructions)
+                .excludeWords(passingWords);
     }
 
-    private static Set<String> deserializeLexicon(String serializedObject) {
-        try {
-            byte b[] = Base64.getDecoder().decode(serializedObject);
-            ByteArrayInputStream bi = new ByteArrayInputStream(b);
-            ObjectInputStream si = new ObjectInputStream(bi);
-            return (Set<String>) si.readObject();
-        } catch (Exception e) {
-            System.out.println(e);
-        }
-        return null;
+    /**
+     * Compose a text file of any size into a MIDI file on a background thread, reading the text a chunk at a time
+     * @param textFile
+     * @param midiFile
+     * @param builder
+     */
+    private static void sonifyTextFile(final File textFile, final File midiFile, final Composer.ComposerBuilder builder) {
+        Thread sonifyThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (MappedTextReader reader = new MappedTextReader(textFile)) {
+                    new ChunkedComposer(builder).compose(reader, new MidiFileWriter(midiFile));
+                    System.out.println("Saved " + textFile + " as " + midiFile);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }, "Sonify text file");
+        sonifyThread.start();
     }
 
     /**
@@ -806,7 +735,7 @@ public class Main extends JFrame {
 
         // Menu
         JMenuBar menuBar = new JMenuBar();
-        JMenuItem loadSettings, saveSettings, exitItem;
+        JMenuItem loadSettings, saveSettings, sonifyFile, exitItem;
 
         // File
         JMenu fileMenu = new JMenu("File");
@@ -898,7 +827,7 @@ public class Main extends JFrame {
                         mainForm.textModel.setText(properties.getProperty("textinput"));
 
                         // Load instructions
-                        instructions = deserialize(properties.getProperty("instructions"));
+                        instructions = SettingsFile.deserialize(properties.getProperty("instructions"));
                         //composer.instructions = deserialize(properties.getProperty("instructions"));
                         Main.model.clear();
                         for (TransformationManager.Instruction i : instructions) {
@@ -906,13 +835,14 @@ public class Main extends JFrame {
                         }
 
                         // Load lexicons
-                        passingWords = deserializeLexicon(properties.getProperty("lexicons"));
+                        passingWords = SettingsFile.deserializeLexicon(properties.getProperty("lexicons"));
                         PassingWordsForm.listModel.clear();
                         for (String i : passingWords) {
                             PassingWordsForm.listModel.addElement(i);
                         }
 
-                    } catch (IOException ex) {
+                    } catch (IOException | IllegalArgumentException ex) {
+                        // Instructions or passing words that cannot be read are left as they were
                         ex.printStackTrace();
                     }
                 } else {
@@ -983,10 +913,10 @@ public class Main extends JFrame {
                     // Saving instructions
                     //ObjectOutputStream instructionsList = serializeObject(TextSound.instructions);
                     //properties.setProperty("instructions", instructionsList.toString());
-                    properties.setProperty("instructions", serialize(instructions));
+                    properties.setProperty("instructions", SettingsFile.serialize(instructions));
 
                     // Saving lexicons
-                    properties.setProperty("lexicons", serializeLexicon(passingWords));
+                    properties.setProperty("lexicons", SettingsFile.serializeLexicon(passingWords));
 
                     // Saving to file
                     try(FileWriter output = new FileWriter(prefsFile)) {
@@ -1000,6 +930,29 @@ public class Main extends JFrame {
             }
         });
 
+        // Sonify a text file too large for the text area
+        sonifyFile = new JMenuItem("Sonify Text File...");
+        sonifyFile.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                fc.setCurrentDirectory(workingDirectory);
+
+                if (fc.showOpenDialog(Main.textModel) == JFileChooser.APPROVE_OPTION) {
+                    File textFile = fc.getSelectedFile();
+
+                    if (fc.showSaveDialog(Main.textModel) == JFileChooser.APPROVE_OPTION) {
+                        File midiFile = new File(fc.getSelectedFile().getAbsoluteFile().toString() + ".mid");
+                        System.out.println("Sonify file: " + textFile + " to " + midiFile);
+                        sonifyTextFile(textFile, midiFile, mainForm.getComposerBuilder());
+                    } else {
+                        System.out.println("Save command cancelled by user.");
+                    }
+                } else {
+                    System.out.println("Open command cancelled by user.");
+                }
+            }
+        });
+
         // Separators
         JSeparator separatorBar = new JSeparator();
 
@@ -1014,6 +967,7 @@ public class Main extends JFrame {
         // Adding menu items to menu
         fileMenu.add(saveSettings);
         fileMenu.add(loadSettings);
+        fileMenu.add(sonifyFile);
         fileMenu.add(separatorBar);
         fileMenu.add(exitItem);
 
@@ -1031,6 +985,34 @@ public class Main extends JFrame {
     }
 
     public static void main(String[] args) throws Exception {
+        // Sonify files without the GUI
+        if (args.length > 0 && args[0].equalsIgnoreCase("batch")) {
+            Batch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Sonify text files as they are saved into a folder
+        if (args.length > 0 && args[0].equalsIgnoreCase("watch")) {
+            FolderWatcher.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Sonify text sent from other programs over HTTP
+        if (args.length > 0 && args[0].equalsIgnoreCase("server")) {
+            HttpService.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Load CoreNLP models and WordNet in the background while the GUI starts
+        SentimentService.getInstance().warmUp();
+        WordNet.getInstance().warmUp();
+
+        // Release the WordNet dictionary files on exit
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                WordNet.getInstance().close();
+            }
+        }));
+
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 try {
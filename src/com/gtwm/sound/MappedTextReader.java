@@ -0,0 +1,111 @@
+package com.gtwm.sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 text file of any size through a memory-mapped window that moves along the file,
+ * so the text is never held on the heap as a whole. Malformed bytes are read as the replacement character.
+ */
+public class MappedTextReader extends Reader {
+
+    // Bytes mapped at a time
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+
+    // File position of the current window
+    private long position;
+    private MappedByteBuffer window;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private boolean flushed;
+
+    public MappedTextReader(File file) throws IOException {
+        this(file, WINDOW_SIZE);
+    }
+
+    /**
+     * @param file
+     * @param windowSize bytes mapped at a time
+     * @throws IOException
+     */
+    public MappedTextReader(File file, long windowSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = Math.max(16, windowSize);
+        map(0);
+
+        // Skip a byte order mark
+        if (window.remaining() >= 3 && (window.get(0) & 0xFF) == 0xEF && (window.get(1) & 0xFF) == 0xBB && (window.get(2) & 0xFF) == 0xBF) {
+            window.position(3);
+        }
+    }
+
+    /**
+     * @return size of the file in bytes
+     */
+    public long length() {
+        return size;
+    }
+
+    /**
+     * @return bytes read so far
+     */
+    public long getBytesRead() {
+        return position + window.position();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !flushed) {
+            boolean last = position + window.limit() >= size;
+            CoderResult result = decoder.decode(window, out, last);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (!last) {
+                // Carry on from the first byte not decoded, which may be part of a character cut by the window
+                map(position + window.position());
+            } else {
+                decoder.decode(EMPTY, out, true);
+                if (decoder.flush(out).isOverflow()) {
+                    break;
+                }
+                flushed = true;
+            }
+        }
+        int read = out.position() - off;
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    private void map(long start) throws IOException {
+        position = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
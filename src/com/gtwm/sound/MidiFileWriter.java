@@ -0,0 +1,264 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Writes a Standard MIDI File (type 1, one track per channel) straight from the composed messages,
+ * without building a Sequence. Messages are held only until the composer says no earlier message can follow,
+ * then encoded into their track. Tracks larger than the spill size are kept in temporary files and copied
+ * into the MIDI file when the composition is finished.
+ */
+public class MidiFileWriter implements NoteSink {
+
+    // Bytes of a track kept in memory before it is moved to a temporary file, override with -Dsingling.midiSpillSize
+    private static final int DEFAULT_SPILL_SIZE = 1024 * 1024;
+
+    private static final int META_END_OF_TRACK = 0x2F;
+
+    private final WritableByteChannel out;
+    private final boolean closeOut;
+    private final int resolution;
+    private final int spillSize = Integer.getInteger("singling.midiSpillSize", DEFAULT_SPILL_SIZE);
+
+    private final TrackWriter[] tracks = new TrackWriter[16];
+    private long order;
+
+    /**
+     * @param file written when the composition is finished
+     * @throws IOException
+     */
+    public MidiFileWriter(File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), true, MidiScoreWriter.RESOLUTION);
+    }
+
+    /**
+     * @param out written when the composition is finished, left open
+     * @param resolution ticks per quarter note
+     */
+    public MidiFileWriter(WritableByteChannel out, int resolution) {
+        this(out, false, resolution);
+    }
+
+    private MidiFileWriter(WritableByteChannel out, boolean closeOut, int resolution) {
+        this.out = out;
+        this.closeOut = closeOut;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Write a whole composition
+     * @param buffer
+     * @param file
+     * @throws IOException
+     */
+    public static void write(NoteBuffer buffer, File file) throws IOException {
+        MidiFileWriter writer = new MidiFileWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), true, buffer.getResolution());
+        buffer.reader().read(writer);
+        writer.finish();
+    }
+
+    @Override
+    public void message(int channel, MidiMessage message, long tick) {
+        if (tracks[channel] == null) {
+            tracks[channel] = new TrackWriter();
+        }
+        tracks[channel].pending.add(new Pending(tick, order++, message));
+    }
+
+    @Override
+    public void flush(long safeTick) throws IOException {
+        for (TrackWriter track : tracks) {
+            if (track != null) {
+                track.encodeBefore(safeTick);
+            }
+        }
+    }
+
+    /**
+     * Encode what is left and write the file
+     * @throws IOException
+     */
+    @Override
+    public void finish() throws IOException {
+        try {
+            int trackCount = 0;
+            for (TrackWriter track : tracks) {
+                if (track != null) {
+                    track.encodeBefore(Long.MAX_VALUE);
+                    track.endOfTrack();
+                    trackCount++;
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(14);
+            header.put(new byte[] { 'M', 'T', 'h', 'd' }).putInt(6).putShort((short) 1)
+                    .putShort((short) trackCount).putShort((short) resolution);
+            header.flip();
+            writeFully(out, header);
+
+            for (TrackWriter track : tracks) {
+                if (track != null) {
+                    track.writeTo(out);
+                }
+            }
+        } finally {
+            for (int t = 0; t < tracks.length; t++) {
+                if (tracks[t] != null) {
+                    tracks[t].close();
+                    tracks[t] = null;
+                }
+            }
+            if (closeOut) {
+                out.close();
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Events of one track, encoded in tick order
+     */
+    private class TrackWriter {
+        final PriorityQueue<Pending> pending = new PriorityQueue<>();
+
+        private byte[] bytes = new byte[1024];
+        private int count;
+        private long length;
+        private long lastTick;
+        private int runningStatus;
+
+        // Bytes already moved out of memory
+        private FileChannel spill;
+
+        /**
+         * Encode the events before the tick
+         * @param tick
+         * @throws IOException
+         */
+        void encodeBefore(long tick) throws IOException {
+            while (!pending.isEmpty() && pending.peek().tick < tick) {
+                Pending event = pending.poll();
+                encode(event.tick, event.message);
+            }
+            if (count > spillSize) {
+                spill();
+            }
+        }
+
+        void endOfTrack() {
+            encode(lastTick, NoteBuffer.metaMessage(META_END_OF_TRACK, new byte[0]));
+        }
+
+        private void encode(long tick, MidiMessage message) {
+            writeVariableLength(tick - lastTick);
+            lastTick = tick;
+
+            byte[] data = message.getMessage();
+            int status = data[0] & 0xFF;
+            int start = 0;
+            if (message instanceof MetaMessage || status >= 0xF0) {
+                // Meta and system messages cancel running status
+                runningStatus = 0;
+            } else if (status == runningStatus) {
+                start = 1;
+            } else {
+                runningStatus = status;
+            }
+            for (int b = start; b < message.getLength(); b++) {
+                write(data[b]);
+            }
+        }
+
+        private void writeVariableLength(long value) {
+            int shift = 28;
+            while (shift > 0 && (value >> shift) == 0) {
+                shift -= 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                write((byte) (((value >> shift) & 0x7F) | 0x80));
+            }
+            write((byte) (value & 0x7F));
+        }
+
+        private void write(byte b) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, count * 2);
+            }
+            bytes[count++] = b;
+            length++;
+        }
+
+        private void spill() throws IOException {
+            if (spill == null) {
+                Path spillFile = Files.createTempFile("singling", ".track");
+                spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            writeFully(spill, ByteBuffer.wrap(bytes, 0, count));
+            count = 0;
+        }
+
+        void writeTo(WritableByteChannel target) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.put(new byte[] { 'M', 'T', 'r', 'k' }).putInt((int) length);
+            header.flip();
+            writeFully(target, header);
+
+            if (spill != null) {
+                long size = spill.size();
+                for (long position = 0; position < size; ) {
+                    position += spill.transferTo(position, size - position, target);
+                }
+            }
+            writeFully(target, ByteBuffer.wrap(bytes, 0, count));
+        }
+
+        void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * A message waiting for its track, in tick order and then in the order it was composed
+     */
+    static class Pending implements Comparable<Pending> {
+        final long tick;
+        final long order;
+        final MidiMessage message;
+
+        Pending(long tick, long order, MidiMessage message) {
+            this.tick = tick;
+            this.order = order;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            if (tick != other.tick) {
+                return tick < other.tick ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.gtwm.sound;
+
+import org.jfugue.midi.MidiDictionary;
+
+import javax.sound.midi.Sequence;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the score into a NoteBuffer, one MIDI channel per voice, without going through a Staccato string.
+ * Timing follows the JFugue MIDI parser so both backends give the same sequence,
+ * except that every note of a chord gets the chord's duration and velocities.
+ */
+public class MidiScoreWriter implements ScoreWriter {
+
+    // Same resolution as JFugue
+    static final int RESOLUTION = 128;
+
+    private final NoteBuffer buffer = new NoteBuffer(RESOLUTION);
+
+    // Time cursor of each voice in whole notes
+    private final double[] times = new double[16];
+    private int voice;
+
+    // Voices selected without a time, which carry on from their own cursor when selected again
+    private final boolean[] carried = new boolean[16];
+
+    // Start of the last note on each voice, for harmonic rests
+    private final double[] noteStarts = new double[16];
+
+    // Pitch wheel of each voice, applied to the notes that follow
+    private final int[] pitchBends = new int[16];
+
+    // Token the following notes belong to
+    private int token = -1;
+
+    // Program numbers by instrument name
+    private final Map<String, Integer> programs = new HashMap<>();
+
+    public MidiScoreWriter(String instrument, int tempo) {
+        this();
+        tempo(tempo);
+        instrument(instrument);
+    }
+
+    /**
+     * Empty score, without the opening tempo and instrument
+     */
+    MidiScoreWriter() {
+        Arrays.fill(pitchBends, 8192);
+        // The score starts on voice 0
+        carried[0] = true;
+    }
+
+    public NoteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @param time in whole notes
+     * @return
+     */
+    static long toTicks(double time) {
+        return (long) (time * 4 * RESOLUTION);
+    }
+
+    /**
+     * Earliest tick anything written from now on can start at, as long as voices are only moved to time or later.
+     * The current voice and voices selected without a time carry on from their cursor, and a harmonic rest goes back
+     * no further than the start of the last note. Idle voices are left out, they are only entered again at time or later.
+     * @param time earliest time a voice will be moved to, in whole notes
+     * @return
+     */
+    public long earliestTick(double time) {
+        double earliest = time;
+        for (int v = 0; v < 16; v++) {
+            if (v == voice || carried[v]) {
+                earliest = Math.min(earliest, Math.min(times[v], noteStarts[v]));
+            }
+        }
+        return toTicks(earliest);
+    }
+
+    @Override
+    public void token(int token) {
+        this.token = token;
+    }
+
+    @Override
+    public void voice(int voice) {
+        this.voice = voice & 0x0F;
+        carried[this.voice] = true;
+    }
+
+    @Override
+    public void voiceAt(int voice, double time) {
+        this.voice = voice & 0x0F;
+        times[this.voice] = time;
+    }
+
+    @Override
+    public void tempo(int bpm) {
+        buffer.addTempo(now(), voice, bpm);
+    }
+
+    @Override
+    public void instrument(String instrument) {
+        Integer program = programs.get(instrument);
+        if (program == null) {
+            program = programNumber(instrument);
+            programs.put(instrument, program);
+        }
+        if (program >= 0) {
+            buffer.addProgram(now(), voice, program);
+        }
+    }
+
+    /**
+     * @param instrument JFugue instrument name or program number
+     * @return -1 if unknown
+     */
+    static int programNumber(String instrument) {
+        String name = instrument.trim();
+        try {
+            return Integer.parseInt(name) & 0x7F;
+        } catch (NumberFormatException e) {
+            Byte program = MidiDictionary.INSTRUMENT_STRING_TO_BYTE.get(name.toUpperCase());
+            if (program == null) {
+                System.out.println("Unknown instrument " + instrument);
+                return -1;
+            }
+            return program & 0x7F;
+        }
+    }
+
+    @Override
+    public void controller(int controller, int value) {
+        buffer.addController(now(), voice, controller, value);
+    }
+
+    @Override
+    public void pitchWheel(long value) {
+        pitchBends[voice] = (int) Math.max(0, Math.min(16383, value));
+    }
+
+    @Override
+    public void note(int note, double duration, int attack, int decay) {
+        noteStarts[voice] = times[voice];
+        addNote(note, duration, attack, decay);
+        times[voice] += duration;
+    }
+
+    @Override
+    public void chord(int root, int third, int fifth, double duration, int attack, int decay) {
+        noteStarts[voice] = times[voice];
+        addNote(root, duration, attack, decay);
+        addNote(third, duration, attack, decay);
+        addNote(fifth, duration, attack, decay);
+        times[voice] += duration;
+    }
+
+    @Override
+    public void rest(double duration) {
+        times[voice] += duration;
+    }
+
+    @Override
+    public void harmonicRest(double duration) {
+        times[voice] = noteStarts[voice] + duration;
+    }
+
+    @Override
+    public void lyric(String text, boolean bracketed) {
+        buffer.addLyric(now(), voice, text);
+    }
+
+    @Override
+    public void marker(String text) {
+        buffer.addMarker(now(), voice, text);
+    }
+
+    @Override
+    public Sequence getSequence() {
+        return buffer.toSequence();
+    }
+
+    private long now() {
+        return toTicks(times[voice]);
+    }
+
+    private void addNote(int note, double duration, int attack, int decay) {
+        long start = toTicks(times[voice]);
+        long end = toTicks(times[voice] + duration);
+        buffer.addNote(start, voice, note, pitchBends[voice], attack, decay, (int) Math.max(0, end - start), token);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,423 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A composition held as parallel primitive arrays, about 22 bytes per note.
+ *
+ * Notes hold their start tick, channel, MIDI note number, pitch bend, attack and decay velocities,
+ * length in ticks and the index of the text token they were made from.
+ * Control events (program, controller, tempo, lyric and marker) are kept in a second set of arrays,
+ * each remembering how many notes came before it so the original event order can be replayed.
+ */
+public class NoteBuffer {
+
+    // Control event types
+    static final byte PROGRAM = 0;
+    static final byte CONTROLLER = 1;
+    static final byte TEMPO = 2;
+    static final byte LYRIC = 3;
+    static final byte MARKER = 4;
+
+    static final int META_TEMPO = 0x51;
+    static final int META_LYRIC = 0x05;
+    static final int META_MARKER = 0x06;
+
+    // Combined coarse and fine volume controller
+    static final int CONTROLLER_VOLUME = 935;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int resolution;
+
+    // Notes
+    private int noteCount;
+    private long[] ticks = new long[INITIAL_CAPACITY];
+    private byte[] channels = new byte[INITIAL_CAPACITY];
+    private byte[] notes = new byte[INITIAL_CAPACITY];
+    private short[] pitchBends = new short[INITIAL_CAPACITY];
+    private byte[] velocities = new byte[INITIAL_CAPACITY];
+    private byte[] decays = new byte[INITIAL_CAPACITY];
+    private int[] durations = new int[INITIAL_CAPACITY];
+    private int[] tokens = new int[INITIAL_CAPACITY];
+
+    // Control events
+    private int eventCount;
+    private long[] eventTicks = new long[INITIAL_CAPACITY];
+    private byte[] eventChannels = new byte[INITIAL_CAPACITY];
+    private byte[] eventTypes = new byte[INITIAL_CAPACITY];
+    private int[] eventData1 = new int[INITIAL_CAPACITY];
+    private int[] eventData2 = new int[INITIAL_CAPACITY];
+    private int[] eventNotesBefore = new int[INITIAL_CAPACITY];
+
+    // Lyric and marker text, referenced from eventData1
+    private final List<String> texts = new ArrayList<>();
+
+    /**
+     * @param resolution ticks per quarter note
+     */
+    public NoteBuffer(int resolution) {
+        this.resolution = resolution;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @param tick
+     * @param channel
+     * @param note MIDI note number
+     * @param pitchBend 0 to 16383
+     * @param velocity
+     * @param decay
+     * @param duration in ticks
+     * @param token index of the text token, -1 if none
+     */
+    public void addNote(long tick, int channel, int note, int pitchBend, int velocity, int decay, int duration, int token) {
+        if (noteCount == ticks.length) {
+            int capacity = noteCount * 2;
+            ticks = Arrays.copyOf(ticks, capacity);
+            channels = Arrays.copyOf(channels, capacity);
+            notes = Arrays.copyOf(notes, capacity);
+            pitchBends = Arrays.copyOf(pitchBends, capacity);
+            velocities = Arrays.copyOf(velocities, capacity);
+            decays = Arrays.copyOf(decays, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+        ticks[noteCount] = tick;
+        channels[noteCount] = (byte) channel;
+        notes[noteCount] = (byte) (note & 0x7F);
+        pitchBends[noteCount] = (short) Math.max(0, Math.min(16383, pitchBend));
+        velocities[noteCount] = (byte) (velocity & 0x7F);
+        decays[noteCount] = (byte) (decay & 0x7F);
+        durations[noteCount] = duration;
+        tokens[noteCount] = token;
+        noteCount++;
+    }
+
+    public void addProgram(long tick, int channel, int program) {
+        addEvent(tick, channel, PROGRAM, program, 0);
+    }
+
+    /**
+     * @param tick
+     * @param channel
+     * @param controller controller number, 935 sets coarse and fine volume
+     * @param value
+     */
+    public void addController(long tick, int channel, int controller, int value) {
+        addEvent(tick, channel, CONTROLLER, controller, value);
+    }
+
+    /**
+     * @param tick
+     * @param channel
+     * @param bpm
+     */
+    public void addTempo(long tick, int channel, int bpm) {
+        addEvent(tick, channel, TEMPO, 60000000 / Math.max(bpm, 1), 0);
+    }
+
+    public void addLyric(long tick, int channel, String text) {
+        texts.add(text);
+        addEvent(tick, channel, LYRIC, texts.size() - 1, 0);
+    }
+
+    public void addMarker(long tick, int channel, String text) {
+        texts.add(text);
+        addEvent(tick, channel, MARKER, texts.size() - 1, 0);
+    }
+
+    private void addEvent(long tick, int channel, byte type, int data1, int data2) {
+        if (eventCount == eventTicks.length) {
+            int capacity = eventCount * 2;
+            eventTicks = Arrays.copyOf(eventTicks, capacity);
+            eventChannels = Arrays.copyOf(eventChannels, capacity);
+            eventTypes = Arrays.copyOf(eventTypes, capacity);
+            eventData1 = Arrays.copyOf(eventData1, capacity);
+            eventData2 = Arrays.copyOf(eventData2, capacity);
+            eventNotesBefore = Arrays.copyOf(eventNotesBefore, capacity);
+        }
+        eventTicks[eventCount] = tick;
+        eventChannels[eventCount] = (byte) channel;
+        eventTypes[eventCount] = type;
+        eventData1[eventCount] = data1;
+        eventData2[eventCount] = data2;
+        eventNotesBefore[eventCount] = noteCount;
+        eventCount++;
+    }
+
+    public int size() {
+        return noteCount;
+    }
+
+    /**
+     * Remove all notes and events, keeping the arrays for reuse
+     */
+    public void clear() {
+        noteCount = 0;
+        eventCount = 0;
+        texts.clear();
+    }
+
+    public long tick(int note) {
+        return ticks[note];
+    }
+
+    public int channel(int note) {
+        return channels[note];
+    }
+
+    public int note(int note) {
+        return notes[note];
+    }
+
+    public int pitchBend(int note) {
+        return pitchBends[note];
+    }
+
+    public int velocity(int note) {
+        return velocities[note];
+    }
+
+    public int decay(int note) {
+        return decays[note];
+    }
+
+    public int duration(int note) {
+        return durations[note];
+    }
+
+    public int token(int note) {
+        return tokens[note];
+    }
+
+    public int eventCount() {
+        return eventCount;
+    }
+
+    public long eventTick(int event) {
+        return eventTicks[event];
+    }
+
+    public int eventChannel(int event) {
+        return eventChannels[event];
+    }
+
+    public int eventType(int event) {
+        return eventTypes[event];
+    }
+
+    public int eventData1(int event) {
+        return eventData1[event];
+    }
+
+    public int eventData2(int event) {
+        return eventData2[event];
+    }
+
+    /**
+     * @param event
+     * @return number of notes added before the event
+     */
+    public int eventNotesBefore(int event) {
+        return eventNotesBefore[event];
+    }
+
+    /**
+     * @param event a lyric or marker event
+     * @return
+     */
+    public String eventText(int event) {
+        return texts.get(eventData1[event]);
+    }
+
+    /**
+     * @return tick of the last note end or event
+     */
+    public long getTickLength() {
+        long length = 0;
+        for (int n = 0; n < noteCount; n++) {
+            length = Math.max(length, ticks[n] + durations[n]);
+        }
+        for (int e = 0; e < eventCount; e++) {
+            length = Math.max(length, eventTicks[e]);
+        }
+        return length;
+    }
+
+    /**
+     * @return approximate heap used by the arrays
+     */
+    public long getMemoryUsage() {
+        long bytes = (long) ticks.length * 22 + (long) eventTicks.length * 26;
+        for (String text : texts) {
+            bytes += 40 + text.length() * 2L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Build a MIDI sequence with one track per channel, events in the order they were added
+     * @return
+     */
+    public Sequence toSequence() {
+        final Sequence sequence;
+        try {
+            sequence = new Sequence(Sequence.PPQ, resolution);
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+        final Track[] tracks = new Track[16];
+        reader().read(new MessageSink() {
+            @Override
+            public void message(int channel, MidiMessage message, long tick) {
+                add(sequence, tracks, channel, message, tick);
+            }
+        });
+        return sequence;
+    }
+
+    /**
+     * @return a reader starting at the beginning of the buffer
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Receives the MIDI messages of a buffer
+     */
+    public interface MessageSink {
+        void message(int channel, MidiMessage message, long tick);
+    }
+
+    /**
+     * Walks the buffer in the order events were added. Reading again later only passes what has been added since,
+     * so a buffer can be played while it is still being composed.
+     */
+    public class Reader {
+        private int note;
+        private int event;
+        private final int[] lastBend = new int[16];
+
+        private Reader() {
+            Arrays.fill(lastBend, -1);
+        }
+
+        /**
+         * Pass the messages for everything added since the last read
+         * @param sink
+         */
+        public void read(MessageSink sink) {
+            for (; ; note++) {
+                // Control events added before this note
+                while (event < eventCount && eventNotesBefore[event] <= note) {
+                    for (MidiMessage message : toMessages(event)) {
+                        sink.message(eventChannels[event], message, eventTicks[event]);
+                    }
+                    event++;
+                }
+                if (note == noteCount) {
+                    break;
+                }
+                int channel = channels[note];
+                if (pitchBends[note] != lastBend[channel]) {
+                    lastBend[channel] = pitchBends[note];
+                    sink.message(channel, shortMessage(ShortMessage.PITCH_BEND, channel, pitchBends[note] & 0x7F, pitchBends[note] >> 7), ticks[note]);
+                }
+                if (durations[note] > 0) {
+                    sink.message(channel, shortMessage(ShortMessage.NOTE_ON, channel, notes[note], velocities[note]), ticks[note]);
+                    sink.message(channel, shortMessage(ShortMessage.NOTE_OFF, channel, notes[note], decays[note]), ticks[note] + durations[note]);
+                }
+            }
+        }
+
+        /**
+         * Pass everything added since the last read, then empty the buffer so it only ever holds
+         * what has been composed since. The buffer must not have any other reader.
+         * @param sink
+         */
+        public void drain(MessageSink sink) {
+            read(sink);
+            clear();
+            note = 0;
+            event = 0;
+        }
+    }
+
+    /**
+     * @param event
+     * @return MIDI messages for a control event
+     */
+    MidiMessage[] toMessages(int event) {
+        int channel = eventChannels[event];
+        switch (eventTypes[event]) {
+            case PROGRAM:
+                return new MidiMessage[] { shortMessage(ShortMessage.PROGRAM_CHANGE, channel, eventData1[event] & 0x7F, 0) };
+            case CONTROLLER:
+                int value = eventData2[event];
+                if (eventData1[event] == CONTROLLER_VOLUME) {
+                    return new MidiMessage[] {
+                            shortMessage(ShortMessage.CONTROL_CHANGE, channel, 7, (value >> 7) & 0x7F),
+                            shortMessage(ShortMessage.CONTROL_CHANGE, channel, 39, value & 0x7F) };
+                }
+                return new MidiMessage[] { shortMessage(ShortMessage.CONTROL_CHANGE, channel, eventData1[event] & 0x7F, value & 0x7F) };
+            case TEMPO:
+                int microsecondsPerBeat = eventData1[event];
+                return new MidiMessage[] { metaMessage(META_TEMPO, new byte[] {
+                        (byte) (microsecondsPerBeat >> 16), (byte) (microsecondsPerBeat >> 8), (byte) microsecondsPerBeat }) };
+            case LYRIC:
+                return new MidiMessage[] { metaMessage(META_LYRIC, eventText(event).getBytes(StandardCharsets.UTF_8)) };
+            case MARKER:
+                return new MidiMessage[] { metaMessage(META_MARKER, eventText(event).getBytes(StandardCharsets.UTF_8)) };
+            default:
+                return new MidiMessage[0];
+        }
+    }
+
+    static ShortMessage shortMessage(int command, int channel, int data1, int data2) {
+        try {
+            ShortMessage message = new ShortMessage();
+            message.setMessage(command, channel, data1, data2);
+            return message;
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    static MetaMessage metaMessage(int type, byte[] data) {
+        try {
+            MetaMessage message = new MetaMessage();
+            message.setMessage(type, data, data.length);
+            return message;
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static void add(Sequence sequence, Track[] tracks, int channel, MidiMessage message, long tick) {
+        if (tracks[channel] == null) {
+            tracks[channel] = sequence.createTrack();
+        }
+        tracks[channel].add(new MidiEvent(message, tick));
+    }
+
+    @Override
+    public String toString() {
+        return "NoteBuffer: " + noteCount + " notes, " + eventCount + " events, " + getTickLength() + " ticks, about " +
+                getMemoryUsage() / 1024 + " KB";
+    }
+}
@@ -0,0 +1,23 @@
+package com.gtwm.sound;
+
+import java.io.IOException;
+
+/**
+ * Receives a composition as MIDI messages while it is being composed, a part at a time.
+ * Messages arrive in the order they were composed, which is not always tick order.
+ */
+public interface NoteSink extends NoteBuffer.MessageSink {
+
+    /**
+     * No message passed after this call has a tick before safeTick, so everything before it can be written out
+     * @param safeTick
+     * @throws IOException
+     */
+    void flush(long safeTick) throws IOException;
+
+    /**
+     * All messages have been passed
+     * @throws IOException
+     */
+    void finish() throws IOException;
+}
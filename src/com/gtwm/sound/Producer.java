@@ -9,9 +9,6 @@ import org.jfugue.player.Player;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.Sequence;
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import java.io.File;
 
 /**
@@ -25,6 +22,13 @@ public class Producer {
     private Thread threadPlayer;
     private Pattern pattern;
 
+    // Composition from the MIDI backend, played and saved without a pattern
+    private NoteBuffer buffer;
+    private BufferPlayer bufferPlayer;
+
+    // Plays a text while it is being composed
+    private StreamingPlayer streamingPlayer;
+
     /**
      *
      * @param
@@ -39,6 +43,28 @@ public class Producer {
      */
     public void setPattern(Pattern pattern) {
         this.pattern = pattern;
+        this.buffer = null;
+    }
+
+    /**
+     *
+     * @param buffer
+     */
+    public void setBuffer(NoteBuffer buffer) {
+        this.buffer = buffer;
+        this.pattern = null;
+    }
+
+    /**
+     * Take the composition from whichever backend produced it
+     * @param score
+     */
+    public void setScore(ScoreWriter score) {
+        if (score instanceof StaccatoScoreWriter) {
+            setPattern(((StaccatoScoreWriter) score).getPattern());
+        } else if (score instanceof MidiScoreWriter) {
+            setBuffer(((MidiScoreWriter) score).getBuffer());
+        }
     }
 
     /**
@@ -63,6 +89,30 @@ public class Producer {
         }
 
         threadPlayer = new Thread(singlingPlayer);
+
+        if (bufferPlayer == null) {
+            bufferPlayer = new BufferPlayer();
+        } else {
+            bufferPlayer.stop();
+        }
+
+        if (streamingPlayer != null) {
+            streamingPlayer.stop();
+            streamingPlayer = null;
+        }
+    }
+
+    /**
+     * Start playing the text as soon as its first sentence is composed
+     * @param composer a new composer using the MIDI backend
+     * @param text
+     * @param onComposed run once the whole text has been composed, may be null
+     */
+    public void doStreamPlayer(Composer composer, String text, Runnable onComposed) {
+        pattern = null;
+        buffer = null;
+        streamingPlayer = new StreamingPlayer(composer, text, onComposed);
+        streamingPlayer.play();
     }
 
     /**
@@ -70,6 +120,16 @@ public class Producer {
      * @param baseNoteLength
      */
     public void doStartPlayer(double baseNoteLength) {
+        if (buffer != null) {
+            System.out.println(buffer);
+            try {
+                bufferPlayer.play(buffer);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         singlingPlayer.setPattern(pattern, player, baseNoteLength);
         System.out.println("MIDI Sequence: " + player.getSequence(pattern));
 
@@ -83,6 +143,24 @@ public class Producer {
      *
      */
     public void doPause() {
+        if (streamingPlayer != null) {
+            if (streamingPlayer.isPlaying()) {
+                streamingPlayer.pause();
+            } else if (streamingPlayer.isPaused()) {
+                streamingPlayer.resume();
+            }
+            return;
+        }
+
+        if (buffer != null) {
+            if (bufferPlayer.isPlaying()) {
+                bufferPlayer.pause();
+            } else if (bufferPlayer.isPaused()) {
+                bufferPlayer.resume();
+            }
+            return;
+        }
+
         try {
             if (player.getManagedPlayer().isPlaying()) {
                 player.getManagedPlayer().pause();
@@ -124,8 +202,21 @@ public class Producer {
      */
     public void doSaveAsMidi(String input, String output) throws Exception {
         File file = new File(output);
-        MidiFileManager midiFileManager = new MidiFileManager();
-        midiFileManager.savePatternToMidi(pattern, file);
+        saveMidi(file);
+    }
+
+    /**
+     * Write the composition as a MIDI file, a pattern is parsed into a sequence by JFugue first
+     * @param file
+     * @throws Exception
+     */
+    private void saveMidi(File file) throws Exception {
+        if (buffer != null) {
+            MidiFileWriter.write(buffer, file);
+        } else {
+            MidiFileManager midiFileManager = new MidiFileManager();
+            midiFileManager.savePatternToMidi(pattern, file);
+        }
     }
 
     /**
@@ -135,21 +226,13 @@ public class Producer {
      * @throws Exception
      */
     public void doSaveAsWAV(String input, String output) throws Exception {
-        // Save to MIDI first
-        File midiFile = new File(output + ".mid");
-        MidiFileManager midiFileManager = new MidiFileManager();
-        midiFileManager.savePatternToMidi(pattern, midiFile);
-
-        // Convert MIDI to WAV
-        AudioInputStream stream = AudioSystem.getAudioInputStream(midiFile);
+        // Render straight to WAV with the software synthesizer
         File file = new File(new File(output) + ".wav");
-        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
-
-        // Delete MIDI file
-        midiFile.delete();
-
-        // Close stream
-        stream.close();
+        if (buffer != null) {
+            WavRenderer.render(buffer, file);
+        } else {
+            WavRenderer.render(StaccatoScoreWriter.toSequence(pattern), file);
+        }
     }
 
 }
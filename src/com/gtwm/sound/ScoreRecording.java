@@ -0,0 +1,236 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.Sequence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records ScoreWriter calls so that a part of a composition can be made on another thread
+ * and written to the real score later. Voice times are kept in hundredths of a whole note
+ * and tokens are kept relative to the start of the recording, both are moved by an offset on replay.
+ */
+public class ScoreRecording implements ScoreWriter {
+
+    private static final byte TOKEN = 0;
+    private static final byte VOICE = 1;
+    private static final byte VOICE_AT = 2;
+    private static final byte TEMPO = 3;
+    private static final byte INSTRUMENT = 4;
+    private static final byte CONTROLLER = 5;
+    private static final byte PITCH_WHEEL = 6;
+    private static final byte NOTE = 7;
+    private static final byte CHORD = 8;
+    private static final byte REST = 9;
+    private static final byte HARMONIC_REST = 10;
+    private static final byte LYRIC = 11;
+    private static final byte MARKER = 12;
+
+    // Calls and their arguments, each read back in order
+    private byte[] ops = new byte[64];
+    private int opCount;
+    private long[] longs = new long[64];
+    private int longCount;
+    private double[] doubles = new double[64];
+    private int doubleCount;
+    private final List<String> strings = new ArrayList<>();
+
+    // Token the recording starts at
+    private final int firstToken;
+
+    /**
+     * @param firstToken token index the recording starts at
+     */
+    public ScoreRecording(int firstToken) {
+        this.firstToken = firstToken;
+    }
+
+    @Override
+    public void token(int token) {
+        op(TOKEN);
+        arg(token - firstToken);
+    }
+
+    @Override
+    public void voice(int voice) {
+        op(VOICE);
+        arg(voice);
+    }
+
+    @Override
+    public void voiceAt(int voice, double time) {
+        op(VOICE_AT);
+        arg(voice);
+        arg(Math.round(time * 100));
+    }
+
+    @Override
+    public void tempo(int bpm) {
+        op(TEMPO);
+        arg(bpm);
+    }
+
+    @Override
+    public void instrument(String instrument) {
+        op(INSTRUMENT);
+        strings.add(instrument);
+    }
+
+    @Override
+    public void controller(int controller, int value) {
+        op(CONTROLLER);
+        arg(controller);
+        arg(value);
+    }
+
+    @Override
+    public void pitchWheel(long value) {
+        op(PITCH_WHEEL);
+        arg(value);
+    }
+
+    @Override
+    public void note(int note, double duration, int attack, int decay) {
+        op(NOTE);
+        arg(note);
+        arg(duration);
+        arg(attack);
+        arg(decay);
+    }
+
+    @Override
+    public void chord(int root, int third, int fifth, double duration, int attack, int decay) {
+        op(CHORD);
+        arg(root);
+        arg(third);
+        arg(fifth);
+        arg(duration);
+        arg(attack);
+        arg(decay);
+    }
+
+    @Override
+    public void rest(double duration) {
+        op(REST);
+        arg(duration);
+    }
+
+    @Override
+    public void harmonicRest(double duration) {
+        op(HARMONIC_REST);
+        arg(duration);
+    }
+
+    @Override
+    public void lyric(String text, boolean bracketed) {
+        op(LYRIC);
+        strings.add(text);
+        arg(bracketed ? 1 : 0);
+    }
+
+    @Override
+    public void marker(String text) {
+        op(MARKER);
+        strings.add(text);
+    }
+
+    /**
+     * The recorded calls on their own, starting at time 0
+     * @return
+     */
+    @Override
+    public Sequence getSequence() {
+        MidiScoreWriter score = new MidiScoreWriter();
+        replay(score, 0, firstToken);
+        return score.getSequence();
+    }
+
+    /**
+     * Make the recorded calls on another writer
+     * @param target
+     * @param timeOffset hundredths of a whole note added to every voice time
+     * @param tokenOffset token index the recording starts at in the target
+     */
+    public void replay(ScoreWriter target, long timeOffset, int tokenOffset) {
+        int l = 0, d = 0, s = 0;
+        for (int o = 0; o < opCount; o++) {
+            switch (ops[o]) {
+                case TOKEN:
+                    target.token(tokenOffset + (int) longs[l++]);
+                    break;
+                case VOICE:
+                    target.voice((int) longs[l++]);
+                    break;
+                case VOICE_AT:
+                    int voice = (int) longs[l++];
+                    target.voiceAt(voice, (timeOffset + longs[l++]) / 100d);
+                    break;
+                case TEMPO:
+                    target.tempo((int) longs[l++]);
+                    break;
+                case INSTRUMENT:
+                    target.instrument(strings.get(s++));
+                    break;
+                case CONTROLLER:
+                    int controller = (int) longs[l++];
+                    target.controller(controller, (int) longs[l++]);
+                    break;
+                case PITCH_WHEEL:
+                    target.pitchWheel(longs[l++]);
+                    break;
+                case NOTE:
+                    int note = (int) longs[l++];
+                    double duration = doubles[d++];
+                    int attack = (int) longs[l++];
+                    target.note(note, duration, attack, (int) longs[l++]);
+                    break;
+                case CHORD:
+                    int root = (int) longs[l++];
+                    int third = (int) longs[l++];
+                    int fifth = (int) longs[l++];
+                    double chordDuration = doubles[d++];
+                    int chordAttack = (int) longs[l++];
+                    target.chord(root, third, fifth, chordDuration, chordAttack, (int) longs[l++]);
+                    break;
+                case REST:
+                    target.rest(doubles[d++]);
+                    break;
+                case HARMONIC_REST:
+                    target.harmonicRest(doubles[d++]);
+                    break;
+                case LYRIC:
+                    target.lyric(strings.get(s++), longs[l++] != 0);
+                    break;
+                case MARKER:
+                    target.marker(strings.get(s++));
+                    break;
+            }
+        }
+    }
+
+    private void op(byte op) {
+        if (opCount == ops.length) {
+            ops = Arrays.copyOf(ops, opCount * 2);
+        }
+        ops[opCount++] = op;
+    }
+
+    private void arg(long value) {
+        if (longCount == longs.length) {
+            longs = Arrays.copyOf(longs, longCount * 2);
+        }
+        longs[longCount++] = value;
+    }
+
+    private void arg(double value) {
+        if (doubleCount == doubles.length) {
+            doubles = Arrays.copyOf(doubles, doubleCount * 2);
+        }
+        doubles[doubleCount++] = value;
+    }
+
+    @Override
+    public String toString() {
+        return "ScoreRecording: " + opCount + " calls";
+    }
+}
@@ -0,0 +1,100 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.Sequence;
+
+/**
+ * Receives the musical events produced by Composer.
+ * Times and durations are in whole notes, as in JFugue: 0.25 is a crotchet.
+ * Each voice is a MIDI channel with its own time cursor, events are written at the cursor of the current voice.
+ */
+public interface ScoreWriter {
+
+    enum Backend { STACCATO, MIDI }
+
+    /**
+     * Index of the text token (word or character) the following notes are made from
+     * @param token
+     */
+    void token(int token);
+
+    /**
+     * Switch to a voice, keeping its time cursor
+     * @param voice
+     */
+    void voice(int voice);
+
+    /**
+     * Switch to a voice and move its time cursor
+     * @param voice
+     * @param time
+     */
+    void voiceAt(int voice, double time);
+
+    /**
+     * @param bpm beats per minute
+     */
+    void tempo(int bpm);
+
+    /**
+     * @param instrument JFugue instrument name or program number
+     */
+    void instrument(String instrument);
+
+    /**
+     * @param controller controller number, 935 is the combined volume controller
+     * @param value
+     */
+    void controller(int controller, int value);
+
+    /**
+     * @param value 0 to 16383, 8192 is no bend
+     */
+    void pitchWheel(long value);
+
+    /**
+     * Play a note and move the cursor to its end
+     * @param note MIDI note number
+     * @param duration
+     * @param attack
+     * @param decay
+     */
+    void note(int note, double duration, int attack, int decay);
+
+    /**
+     * Play three notes together and move the cursor to their end
+     * @param root
+     * @param third
+     * @param fifth
+     * @param duration
+     * @param attack
+     * @param decay
+     */
+    void chord(int root, int third, int fifth, double duration, int attack, int decay);
+
+    /**
+     * @param duration
+     */
+    void rest(double duration);
+
+    /**
+     * Rest starting together with the previous note, the cursor moves to the end of the rest
+     * @param duration
+     */
+    void harmonicRest(double duration);
+
+    /**
+     * @param text
+     * @param bracketed written as '(text) rather than 'text in a Staccato string
+     */
+    void lyric(String text, boolean bracketed);
+
+    /**
+     * @param text
+     */
+    void marker(String text);
+
+    /**
+     * @return the score as a MIDI sequence
+     */
+    Sequence getSequence();
+}
@@ -0,0 +1,284 @@
+package com.gtwm.sound;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.neural.rnn.RNNCoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.sentiment.SentimentCoreAnnotations;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Process-wide CoreNLP pipeline used for sentiment analysis.
+ * The pipeline is expensive to build so it is created once and shared by every caller.
+ */
+public class SentimentService {
+
+    // Annotators needed to get POS tags, lemmas and sentiment values
+    private static final String ANNOTATORS = "tokenize, ssplit, pos, lemma, parse, sentiment";
+
+    // Annotators needed to find sentence boundaries only
+    private static final String SPLIT_ANNOTATORS = "tokenize, ssplit";
+
+    // Stored with cached results so they are thrown away when the pipeline changes
+    private static final String MODEL_VERSION = "1 " + ANNOTATORS;
+
+    // Number of distinct words whose sentiment is remembered, override with -Dsingling.sentimentCacheSize
+    private static final int DEFAULT_WORD_CACHE_SIZE = 10000;
+
+    // Number of distinct sentences whose annotations are kept in memory, override with -Dsingling.sentenceCacheSize
+    private static final int DEFAULT_SENTENCE_CACHE_SIZE = 2000;
+
+    private static final SentimentService instance = new SentimentService();
+
+    // Built on first use, or ahead of time by warmUp()
+    private volatile StanfordCoreNLP pipeline;
+
+    // Cheap pipeline used to cut text into sentences before looking them up in the store
+    private volatile StanfordCoreNLP splitter;
+
+    // Optional results kept on disk between runs, enable with -Dsingling.nlpCache=true
+    private volatile AnnotationStore store;
+
+    // Sentiment of a word on its own only depends on the word, so it is computed once per distinct word.
+    // Used by the TextSound path, Composer reads word sentiment from the token table instead
+    private final LRUCache<String, Integer> wordCache =
+            new LRUCache<>(Integer.getInteger("singling.sentimentCacheSize", DEFAULT_WORD_CACHE_SIZE));
+
+    // Annotations of sentences seen before, so editing a text only annotates the changed sentences again
+    private final LRUCache<String, TokenTable> sentenceCache =
+            new LRUCache<>(Integer.getInteger("singling.sentenceCacheSize", DEFAULT_SENTENCE_CACHE_SIZE));
+
+    private SentimentService() {
+        if (Boolean.getBoolean("singling.nlpCache")) {
+            setDiskCache(AnnotationStore.DEFAULT_FILE);
+        }
+    }
+
+    public static SentimentService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Build the pipeline on a background thread so the first composition does not wait for models to load
+     */
+    public void warmUp() {
+        Thread warmUpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                AnnotationStore diskCache = store;
+                if (diskCache != null) {
+                    diskCache.size();
+                }
+                getPipeline();
+                System.out.println("CoreNLP pipeline ready in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        }, "CoreNLP warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    /**
+     * StanfordCoreNLP can annotate separate documents concurrently, so one instance serves all threads
+     * @return
+     */
+    public StanfordCoreNLP getPipeline() {
+        StanfordCoreNLP result = pipeline;
+        if (result == null) {
+            synchronized (this) {
+                result = pipeline;
+                if (result == null) {
+                    Properties props = new Properties();
+                    props.setProperty("annotators", ANNOTATORS);
+                    result = new StanfordCoreNLP(props);
+                    pipeline = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private StanfordCoreNLP getSplitter() {
+        StanfordCoreNLP result = splitter;
+        if (result == null) {
+            synchronized (this) {
+                result = splitter;
+                if (result == null) {
+                    Properties props = new Properties();
+                    props.setProperty("annotators", SPLIT_ANNOTATORS);
+                    result = new StanfordCoreNLP(props);
+                    splitter = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keep sentence and word results in a file so later runs over the same text skip the pipeline
+     * @param file null to turn the disk cache off
+     */
+    public synchronized void setDiskCache(File file) {
+        if (store != null) {
+            store.close();
+        }
+        store = file == null ? null : new AnnotationStore(file, MODEL_VERSION);
+    }
+
+    /**
+     * Annotate a whole text, one parse per sentence
+     * @param text
+     * @return
+     */
+    public TokenTable annotate(String text) {
+        AnnotationStore diskCache = store;
+
+        // Split into sentences and only run the full pipeline on sentences not seen before
+        List<TokenTable> parts = new ArrayList<>();
+        for (String sentenceText : splitSentences(text)) {
+            parts.add(annotateSentence(sentenceText, diskCache));
+        }
+        return TokenTable.concat(parts);
+    }
+
+    /**
+     * Annotate each sentence of the text as a separate task on the pool
+     * @param text
+     * @param pool
+     * @return
+     */
+    public TokenTable annotate(String text, ExecutorService pool) {
+        final AnnotationStore diskCache = store;
+        List<Future<TokenTable>> futures = new ArrayList<>();
+        for (final String sentenceText : splitSentences(text)) {
+            futures.add(pool.submit(new Callable<TokenTable>() {
+                @Override
+                public TokenTable call() {
+                    return annotateSentence(sentenceText, diskCache);
+                }
+            }));
+        }
+        List<TokenTable> parts = new ArrayList<>();
+        try {
+            for (Future<TokenTable> future : futures) {
+                parts.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return TokenTable.concat(parts);
+    }
+
+    /**
+     * @param text
+     * @return text of each sentence as found by the CoreNLP sentence splitter
+     */
+    public List<String> splitSentences(String text) {
+        Annotation split = new Annotation(text);
+        getSplitter().annotate(split);
+        List<String> sentences = new ArrayList<>();
+        for (CoreMap sentence : split.get(CoreAnnotations.SentencesAnnotation.class)) {
+            List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+            if (!tokens.isEmpty()) {
+                sentences.add(text.substring(tokens.get(0).beginPosition(), tokens.get(tokens.size() - 1).endPosition()));
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * Annotate one sentence found by splitSentences
+     * @param sentenceText
+     * @return
+     */
+    public TokenTable annotateSentence(String sentenceText) {
+        return annotateSentence(sentenceText, store);
+    }
+
+    /**
+     * @param sentenceText
+     * @param diskCache null if results are not kept on disk
+     * @return
+     */
+    private TokenTable annotateSentence(String sentenceText, AnnotationStore diskCache) {
+        TokenTable part = sentenceCache.get(sentenceText);
+        if (part != null) {
+            return part;
+        }
+        part = diskCache == null ? null : diskCache.getSentence(sentenceText);
+        if (part == null) {
+            part = annotateText(sentenceText);
+            if (diskCache != null) {
+                diskCache.putSentence(sentenceText, part);
+            }
+        }
+        sentenceCache.put(sentenceText, part);
+        return part;
+    }
+
+    private TokenTable annotateText(String text) {
+        Annotation annotation = new Annotation(text);
+        getPipeline().annotate(annotation);
+        return TokenTable.fromAnnotation(annotation);
+    }
+
+    /**
+     * Sentiment class of the first sentence in text, 0 (very negative) to 4 (very positive)
+     * @param text
+     * @return
+     */
+    public int getSentiment(String text) {
+        Integer cached = wordCache.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        AnnotationStore diskCache = store;
+        Integer stored = diskCache == null ? null : diskCache.getWordSentiment(text);
+        int sentiment;
+        if (stored != null) {
+            sentiment = stored;
+        } else {
+            sentiment = analyse(text);
+            if (diskCache != null) {
+                diskCache.putWordSentiment(text, sentiment);
+            }
+        }
+        wordCache.put(text, sentiment);
+        return sentiment;
+    }
+
+    public LRUCache<String, Integer> getWordCache() {
+        return wordCache;
+    }
+
+    public void setWordCacheSize(int size) {
+        wordCache.setMaxSize(size);
+    }
+
+    public LRUCache<String, TokenTable> getSentenceCache() {
+        return sentenceCache;
+    }
+
+    private int analyse(String text) {
+        Annotation annotation = getPipeline().process(text);
+        for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
+            Tree tree = sentence.get(SentimentCoreAnnotations.SentimentAnnotatedTree.class);
+            return RNNCoreAnnotations.getPredictedClass(tree);
+        }
+        return 0;
+    }
+}
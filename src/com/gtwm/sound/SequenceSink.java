@@ -0,0 +1,45 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Collects the messages into a MIDI sequence with one track per channel, for players and writers that need the whole sequence
+ */
+public class SequenceSink implements NoteSink {
+
+    private final Sequence sequence;
+    private final Track[] tracks = new Track[16];
+
+    public SequenceSink() {
+        try {
+            sequence = new Sequence(Sequence.PPQ, MidiScoreWriter.RESOLUTION);
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void message(int channel, MidiMessage message, long tick) {
+        if (tracks[channel] == null) {
+            tracks[channel] = sequence.createTrack();
+        }
+        tracks[channel].add(new MidiEvent(message, tick));
+    }
+
+    @Override
+    public void flush(long safeTick) {
+        // Tracks keep their events in tick order
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    public Sequence getSequence() {
+        return sequence;
+    }
+}
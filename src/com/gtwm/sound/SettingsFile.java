@@ -0,0 +1,239 @@
+package com.gtwm.sound;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Settings saved by "Save Settings as...": base settings, scope, note behaviour, text,
+ * and the instructions and passing words serialized as Base64
+ */
+public class SettingsFile {
+
+    // Only the classes written by Save Settings as... are read back. Object and Map$Entry are checked for the
+    // arrays ArrayList and HashSet allocate before reading their elements
+    private static final ObjectInputFilter SAVED_CLASSES = ObjectInputFilter.Config.createFilter(
+            "java.util.ArrayList;java.util.HashSet;java.lang.Enum;java.lang.Object;java.util.Map$Entry;" +
+            "com.gtwm.sound.TransformationManager$Instruction*;maxdepth=4;!*");
+
+    private SettingsFile() {
+    }
+
+    /**
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (FileReader fileReader = new FileReader(file)) {
+            properties.load(fileReader);
+        }
+        return properties;
+    }
+
+    /**
+     * Composer settings from a settings file, as Load Settings would set them in the form.
+     * Settings missing from the file take the form's starting values.
+     * @param properties
+     * @return
+     */
+    public static Composer.ComposerBuilder toBuilder(Properties properties) {
+        String operationType = "LEXNAMEFREQ";
+        String noteBehaviour = properties.getProperty("notebehaviour", "lexname");
+        if (noteBehaviour.equalsIgnoreCase("static")) {
+            operationType = "STATICFREQ";
+        } else if (noteBehaviour.equalsIgnoreCase("mute")) {
+            operationType = "MUTE";
+        }
+
+        return new Composer
+                .ComposerBuilder()
+                .setInstrument(properties.getProperty("instrument", "PIANO"))
+                .setNoteLength(Double.parseDouble(properties.getProperty("noteduration", "0.50")))
+                .setOctave(Double.parseDouble(properties.getProperty("octave", "10")))
+                .setTempo(Double.parseDouble(properties.getProperty("tempo", "350")))
+                .setFrequency(Double.parseDouble(properties.getProperty("frequency", "440")))
+                .setRestLength(Double.parseDouble(properties.getProperty("restlengthspace", "0.25")))
+                .setRestLengthLineBreak(Double.parseDouble(properties.getProperty("restlengthlinebreak", "1.00")))
+                .wantWord(!properties.getProperty("scope", "word").equalsIgnoreCase("character"))
+                .withOperation(operationType)
+                .withOrdering(0)
+                .useTransformations(getInstructions(properties))
+                .excludeWords(getPassingWords(properties));
+    }
+
+    /**
+     * @param properties
+     * @return empty if there are none
+     * @throws IllegalArgumentException if the instructions cannot be read
+     */
+    public static List<TransformationManager.Instruction> getInstructions(Properties properties) {
+        return deserialize(properties.getProperty("instructions"));
+    }
+
+    /**
+     * @param properties
+     * @return empty if there are none
+     * @throws IllegalArgumentException if the passing words cannot be read
+     */
+    public static Set<String> getPassingWords(Properties properties) {
+        return deserializeLexicon(properties.getProperty("lexicons"));
+    }
+
+    static String serialize(List<TransformationManager.Instruction> thisObjectList) {
+        try {
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            ObjectOutputStream so = new ObjectOutputStream(bo);
+            so.writeObject(thisObjectList);
+            so.flush();
+            final byte[] byteArray = bo.toByteArray();
+            return Base64.getEncoder().encodeToString(byteArray);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+
+    /**
+     * @param serializedObject
+     * @return empty if the value is missing
+     * @throws IllegalArgumentException if the value is not a serialized list of instructions
+     */
+    static List<TransformationManager.Instruction> deserialize(String serializedObject) {
+        if (serializedObject == null || serializedObject.isEmpty()) {
+            return new ArrayList<TransformationManager.Instruction>();
+        }
+        try {
+            return (List<TransformationManager.Instruction>) objectInput(serializedObject).readObject();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot read instructions: " + e, e);
+        }
+    }
+
+    static String serializeLexicon(Set<String> thisObjectList) {
+        try {
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            ObjectOutputStream so = new ObjectOutputStream(bo);
+            so.writeObject(thisObjectList);
+            so.flush();
+            final byte[] byteArray = bo.toByteArray();
+            return Base64.getEncoder().encodeToString(byteArray);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+
+    /**
+     * @param serializedObject
+     * @return empty if the value is missing
+     * @throws IllegalArgumentException if the value is not a serialized set of words
+     */
+    static Set<String> deserializeLexicon(String serializedObject) {
+        if (serializedObject == null || serializedObject.isEmpty()) {
+            return new HashSet<String>();
+        }
+        try {
+            return (Set<String>) objectInput(serializedObject).readObject();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot read passing words: " + e, e);
+        }
+    }
+
+    /**
+     * @param serializedObject Base64 of a serialized object
+     * @return stream that rejects classes other than those of saved instructions and passing words
+     * @throws IOException
+     */
+    private static ObjectInputStream objectInput(String serializedObject) throws IOException {
+        ObjectInputStream si = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(serializedObject)));
+        si.setObjectInputFilter(SAVED_CLASSES);
+        return si;
+    }
+
+    /**
+     * Instructions written as text, one per line:
+     * mod, operator, value, sound mod, sound value and change mode separated by spaces, then the sentiment type
+     * for SENTIMENT instructions. Fields after the mod can be left out with -. For example
+     * <pre>
+     * PUNCTUATION EQUALTO , INSTRUMENT VIOLIN SET
+     * WORDLENGTH LARGERTHAN 4 VOLUME 20000 SET
+     * </pre>
+     * Blank lines and lines starting with # are skipped.
+     * @param rules
+     * @return empty if there are none
+     * @throws IllegalArgumentException naming the line that cannot be read
+     */
+    public static List<TransformationManager.Instruction> parseRules(String rules) {
+        List<TransformationManager.Instruction> instructions = new ArrayList<>();
+        if (rules == null) {
+            return instructions;
+        }
+        String[] lines = rules.split("\\r?\\n");
+        for (int l = 0; l < lines.length; l++) {
+            String line = lines[l].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length < 6 || fields.length > 7) {
+                throw new IllegalArgumentException("Rule " + (l + 1) + " needs 6 or 7 fields: " + line);
+            }
+            try {
+                instructions.add(new TransformationManager.Instruction(
+                        TransformationManager.Instruction.Mods.valueOf(fields[0].toUpperCase(Locale.ROOT)),
+                        field(TransformationManager.Instruction.ModOperators.class, fields, 1),
+                        field(fields, 2),
+                        field(TransformationManager.Instruction.SoundMods.class, fields, 3),
+                        field(fields, 4),
+                        field(TransformationManager.Instruction.ChangeModes.class, fields, 5),
+                        field(TransformationManager.Instruction.SentimentTypes.class, fields, 6),
+                        TransformationManager.Instruction.InstructionStatus.ACTIVE));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Rule " + (l + 1) + " cannot be read: " + line, e);
+            }
+        }
+        return instructions;
+    }
+
+    /**
+     * @param words separated by spaces, commas or new lines
+     * @return empty if there are none
+     */
+    public static Set<String> parseWords(String words) {
+        Set<String> passingWords = new HashSet<>();
+        if (words != null) {
+            Collections.addAll(passingWords, words.trim().split("[\\s,]+"));
+            passingWords.remove("");
+        }
+        return passingWords;
+    }
+
+    /**
+     * @param fields
+     * @param index
+     * @return null for a field left out with - or missing from the end
+     */
+    private static String field(String[] fields, int index) {
+        return index >= fields.length || fields[index].equals("-") ? null : fields[index];
+    }
+
+    private static <E extends Enum<E>> E field(Class<E> type, String[] fields, int index) {
+        String field = field(fields, index);
+        return field == null ? null : Enum.valueOf(type, field.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,117 @@
+package com.gtwm.sound;
+
+import org.jfugue.midi.MidiParserListener;
+import org.jfugue.pattern.Pattern;
+import org.staccato.StaccatoParser;
+
+import javax.sound.midi.Sequence;
+
+/**
+ * Writes the score as a JFugue Staccato pattern
+ */
+public class StaccatoScoreWriter implements ScoreWriter {
+
+    private final Pattern pattern;
+
+    public StaccatoScoreWriter(String instrument, int tempo) {
+        pattern = new Pattern();
+        pattern.setVoice(0);
+        pattern.setInstrument(instrument);
+        pattern.setTempo(tempo);
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public void token(int token) {
+        // Not kept in the pattern
+    }
+
+    @Override
+    public void voice(int voice) {
+        pattern.add("V" + voice);
+    }
+
+    @Override
+    public void voiceAt(int voice, double time) {
+        pattern.add("V" + voice + " @" + time);
+    }
+
+    @Override
+    public void tempo(int bpm) {
+        pattern.add("T" + bpm);
+    }
+
+    @Override
+    public void instrument(String instrument) {
+        pattern.add("I[" + instrument + "] ");
+    }
+
+    @Override
+    public void controller(int controller, int value) {
+        pattern.add(":CE(" + controller + "," + value + ")");
+    }
+
+    @Override
+    public void pitchWheel(long value) {
+        pattern.add(":PW(" + value + ")");
+    }
+
+    @Override
+    public void note(int note, double duration, int attack, int decay) {
+        pattern.add(note + "/" + duration + "a" + attack + "d" + decay);
+    }
+
+    @Override
+    public void chord(int root, int third, int fifth, double duration, int attack, int decay) {
+        pattern.add(root + "+" + third + "+" + fifth + "/" + duration + "a" + attack + "d" + decay);
+    }
+
+    @Override
+    public void rest(double duration) {
+        pattern.add("R/" + String.format("%f", duration) + " ");
+    }
+
+    @Override
+    public void harmonicRest(double duration) {
+        pattern.add("+R/" + String.format("%f", duration) + " ");
+    }
+
+    @Override
+    public void lyric(String text, boolean bracketed) {
+        pattern.add(bracketed ? " '(" + text + ")" : " '" + text);
+    }
+
+    @Override
+    public void marker(String text) {
+        pattern.add(" #(" + text + ")");
+    }
+
+    /**
+     * Parse the pattern into a sequence the same way the JFugue Player does
+     * @return
+     */
+    @Override
+    public Sequence getSequence() {
+        return toSequence(pattern);
+    }
+
+    /**
+     * @param pattern
+     * @return the pattern parsed into a sequence
+     */
+    public static Sequence toSequence(Pattern pattern) {
+        StaccatoParser parser = new StaccatoParser();
+        MidiParserListener listener = new MidiParserListener();
+        parser.addParserListener(listener);
+        parser.parse(pattern);
+        return listener.getSequence();
+    }
+
+    @Override
+    public String toString() {
+        return pattern.toString();
+    }
+}
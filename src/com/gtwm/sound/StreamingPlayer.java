@@ -0,0 +1,242 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import java.nio.charset.StandardCharsets;
+import java.util.PriorityQueue;
+
+/**
+ * Plays a text while it is being composed. Sentences are composed a little ahead of playback and their
+ * notes are sent to the synthesizer when they are due, so the first note plays as soon as the first sentence is ready.
+ * Lyric and marker events are passed to the same listeners as BufferPlayer.
+ */
+public class StreamingPlayer implements Runnable {
+
+    // Sentences annotated ahead of the one being composed, override with -Dsingling.lookAhead
+    private static final int DEFAULT_LOOK_AHEAD = 4;
+
+    // Compose the next sentence when less than this much music is waiting to be played
+    private static final long COMPOSE_AHEAD_MICROS = 2000000;
+
+    // Longest sleep between checks for pause and stop
+    private static final long MAX_SLEEP_MILLIS = 10;
+
+    // Let the last notes ring before closing the synthesizer
+    private static final long RELEASE_MILLIS = 1000;
+
+    // Until the first tempo event, as in MIDI files
+    private static final long DEFAULT_MICROS_PER_QUARTER = 500000;
+
+    private final Composer composer;
+    private final String text;
+    private final Runnable onComposed;
+
+    private Thread thread;
+    private volatile boolean stopped;
+    private Receiver receiver;
+
+    // Latest tick composed so far
+    private long queuedTick;
+
+    // Wall clock, not counting time spent paused
+    private long startNanos;
+    private long pausedNanos;
+    private long pausedAt;
+    private boolean paused;
+
+    // Highlight lyrics and output markers as music is played
+    private LyricParserListener lpl = new LyricParserListener();
+    private MarkerParserListener mpl = new MarkerParserListener();
+
+    /**
+     * @param composer a new composer using the MIDI backend
+     * @param text
+     * @param onComposed run on the player thread once the whole text has been composed, may be null
+     */
+    public StreamingPlayer(Composer composer, String text, Runnable onComposed) {
+        this.composer = composer;
+        this.text = text;
+        this.onComposed = onComposed;
+    }
+
+    public synchronized void play() {
+        if (thread == null) {
+            thread = new Thread(this, "Streaming player");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void run() {
+        Composer.SentenceStream stream = composer.stream(text, Integer.getInteger("singling.lookAhead", DEFAULT_LOOK_AHEAD));
+        Synthesizer synthesizer = null;
+        try {
+            synthesizer = MidiSystem.getSynthesizer();
+            synthesizer.open();
+            synchronized (this) {
+                receiver = synthesizer.getReceiver();
+                startNanos = System.nanoTime();
+            }
+
+            NoteBuffer buffer = ((MidiScoreWriter) composer.getScore()).getBuffer();
+            NoteBuffer.Reader reader = buffer.reader();
+            final PriorityQueue<Scheduled> queue = new PriorityQueue<>();
+            NoteBuffer.MessageSink sink = new NoteBuffer.MessageSink() {
+                private long order;
+
+                @Override
+                public void message(int channel, MidiMessage message, long tick) {
+                    queue.add(new Scheduled(tick, order++, message));
+                    queuedTick = Math.max(queuedTick, tick);
+                }
+            };
+
+            // Tempo map, ticks are turned into time from the last event played
+            int resolution = buffer.getResolution();
+            long microsPerQuarter = DEFAULT_MICROS_PER_QUARTER;
+            long lastTick = 0;
+            long lastMicros = 0;
+            boolean composing = true;
+
+            while (!stopped) {
+                // Compose when nothing is waiting, or when the next sentence is ready and little music is left
+                while (composing && (queue.isEmpty() || (stream.isReady() &&
+                        lastMicros + (queuedTick - lastTick) * microsPerQuarter / resolution - elapsedMicros() < COMPOSE_AHEAD_MICROS))) {
+                    if (stream.hasNext()) {
+                        stream.next();
+                        reader.read(sink);
+                    } else {
+                        composing = false;
+                        System.out.println("Composed " + stream.getComposed() + " sentences while playing, " + buffer);
+                        if (onComposed != null) {
+                            onComposed.run();
+                        }
+                    }
+                }
+                if (queue.isEmpty()) {
+                    break;
+                }
+
+                Scheduled next = queue.peek();
+                long due = lastMicros + (next.tick - lastTick) * microsPerQuarter / resolution;
+                long wait = due - elapsedMicros();
+                if (isPaused() || wait > 0) {
+                    Thread.sleep(isPaused() ? MAX_SLEEP_MILLIS : Math.min(MAX_SLEEP_MILLIS, Math.max(1, wait / 1000)));
+                    continue;
+                }
+                queue.poll();
+                lastMicros = due;
+                lastTick = next.tick;
+
+                if (next.message instanceof MetaMessage) {
+                    MetaMessage meta = (MetaMessage) next.message;
+                    byte[] data = meta.getData();
+                    switch (meta.getType()) {
+                        case NoteBuffer.META_TEMPO:
+                            microsPerQuarter = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+                            break;
+                        case NoteBuffer.META_LYRIC:
+                            lpl.onLyricParsed(new String(data, StandardCharsets.UTF_8));
+                            break;
+                        case NoteBuffer.META_MARKER:
+                            mpl.onMarkerParsed(new String(data, StandardCharsets.UTF_8));
+                            break;
+                    }
+                } else {
+                    synchronized (this) {
+                        receiver.send(next.message, -1);
+                    }
+                }
+            }
+            if (!stopped) {
+                Thread.sleep(RELEASE_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (Exception e) {
+            if (!stopped) {
+                e.printStackTrace();
+            }
+        } finally {
+            stream.close();
+            synchronized (this) {
+                receiver = null;
+            }
+            if (synthesizer != null) {
+                synthesizer.close();
+            }
+        }
+    }
+
+    private synchronized long elapsedMicros() {
+        long now = paused ? pausedAt : System.nanoTime();
+        return (now - startNanos - pausedNanos) / 1000;
+    }
+
+    public synchronized boolean isPlaying() {
+        return thread != null && thread.isAlive() && !paused;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public synchronized void pause() {
+        if (!paused && receiver != null) {
+            paused = true;
+            pausedAt = System.nanoTime();
+            allNotesOff();
+        }
+    }
+
+    public synchronized void resume() {
+        if (paused) {
+            pausedNanos += System.nanoTime() - pausedAt;
+            paused = false;
+        }
+    }
+
+    /**
+     * Stop playing and composing
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void allNotesOff() {
+        for (int channel = 0; channel < 16; channel++) {
+            receiver.send(NoteBuffer.shortMessage(ShortMessage.CONTROL_CHANGE, channel, 123, 0), -1);
+        }
+    }
+
+    /**
+     * A message waiting to be sent, in tick order and then in the order it was composed
+     */
+    private static class Scheduled implements Comparable<Scheduled> {
+        final long tick;
+        final long order;
+        final MidiMessage message;
+
+        Scheduled(long tick, long order, MidiMessage message) {
+            this.tick = tick;
+            this.order = order;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Scheduled other) {
+            if (tick != other.tick) {
+                return tick < other.tick ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.MidiMessage;
+import java.io.IOException;
+
+/**
+ * Passes a composition to two sinks, so it can be written as MIDI and rendered as WAV while composing it once
+ */
+public class TeeSink implements NoteSink {
+
+    private final NoteSink first;
+    private final NoteSink second;
+
+    public TeeSink(NoteSink first, NoteSink second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public void message(int channel, MidiMessage message, long tick) {
+        first.message(channel, message, tick);
+        second.message(channel, message, tick);
+    }
+
+    @Override
+    public void flush(long safeTick) throws IOException {
+        first.flush(safeTick);
+        second.flush(safeTick);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        try {
+            first.finish();
+        } finally {
+            second.finish();
+        }
+    }
+}
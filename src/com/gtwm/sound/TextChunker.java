@@ -0,0 +1,99 @@
+package com.gtwm.sound;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Cuts text from a Reader into chunks of about the given size. Chunks end where the CoreNLP sentence splitter
+ * starts a new sentence, after a blank line where there is one, so that no sentence is split between chunks.
+ */
+public class TextChunker {
+
+    private final Reader input;
+    private final int chunkSize;
+    private final char[] block = new char[8192];
+
+    // Text read but not returned yet
+    private final StringBuilder pending = new StringBuilder();
+    private boolean endOfInput;
+
+    /**
+     * @param input
+     * @param chunkSize characters per chunk, a single sentence longer than this is returned whole up to four times the size
+     */
+    public TextChunker(Reader input, int chunkSize) {
+        this.input = input;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @return the next chunk, null at the end of the input
+     * @throws IOException
+     */
+    public String next() throws IOException {
+        while (!endOfInput && pending.length() < chunkSize) {
+            int read = input.read(block);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                pending.append(block, 0, read);
+            }
+        }
+        if (pending.length() == 0) {
+            return null;
+        }
+        int cut = endOfInput && pending.length() <= chunkSize ? pending.length() : findCut();
+        String chunk = pending.substring(0, cut);
+        pending.delete(0, cut);
+        return chunk;
+    }
+
+    /**
+     * @return where to end the chunk
+     */
+    private int findCut() {
+        int limit = Math.min(pending.length(), chunkSize * 4);
+        String text = pending.substring(0, limit);
+
+        // Start of each sentence but the first, the last one may not be complete yet
+        List<String> sentences = SentimentService.getInstance().splitSentences(text);
+        int paragraph = 0;
+        int sentence = 0;
+        int from = 0;
+        for (int s = 0; s < sentences.size(); s++) {
+            int start = text.indexOf(sentences.get(s), from);
+            from = start + sentences.get(s).length();
+            if (s > 0) {
+                sentence = start;
+                if (start <= chunkSize * 2 && afterBlankLine(start)) {
+                    paragraph = start;
+                }
+            }
+        }
+        if (paragraph > 0) {
+            return paragraph;
+        }
+        if (sentence > 0) {
+            return sentence;
+        }
+
+        // One very long sentence, cut at a space
+        int space = text.lastIndexOf(' ');
+        return space > 0 ? space + 1 : limit;
+    }
+
+    /**
+     * @param position
+     * @return true if only whitespace with a blank line in it comes before position, back to the previous text
+     */
+    private boolean afterBlankLine(int position) {
+        int lineBreaks = 0;
+        for (int i = position - 1; i >= 0 && Character.isWhitespace(pending.charAt(i)); i--) {
+            if (pending.charAt(i) == '\n') {
+                lineBreaks++;
+            }
+        }
+        return lineBreaks >= 2;
+    }
+}
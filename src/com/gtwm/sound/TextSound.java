@@ -17,40 +17,24 @@
 
 package com.gtwm.sound;
 
-import edu.mit.jwi.Dictionary;
-import edu.mit.jwi.IDictionary;
 import edu.mit.jwi.item.*;
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.neural.rnn.RNNCoreAnnotations;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.sentiment.SentimentCoreAnnotations;
-import edu.stanford.nlp.simple.Document;
-import edu.stanford.nlp.simple.Sentence;
-import edu.stanford.nlp.trees.Tree;
-import edu.stanford.nlp.util.CoreMap;
 import org.jfugue.midi.MidiFileManager;
 import org.jfugue.pattern.Pattern;
 import org.jfugue.player.Player;
 import org.jfugue.realtime.RealtimePlayer;
 import org.jfugue.theory.Note;
 
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import javax.swing.text.Highlighter;
 import javax.swing.text.JTextComponent;
 import java.awt.*;
 import java.io.File;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.List;
 import java.util.*;
 
 /**
  * Transforms a stream of text into sound using the overtone series and synset types
  * ie. synset 1 = root, synset 2 = first over tone etc.
+ * Settings are kept in static fields, so only one composition runs at a time. Use Composer for compositions that run together.
  *
  * @author effiam
  */
@@ -141,9 +125,6 @@ public class TextSound {
 	// Sentiment state
 	static boolean sentimentState;
 
-	// JWI object
-	static IDictionary dict;
-
 	// Keep parameters within reasonable ranges ie. BASE_FREQUENCY(16.0, 2048)
 	enum Setting {
 		NOTE_LENGTH(0.01, 8.0), ARPEGGIATE_GAP(0.001, 0.5), REST_LENGTH(0.01, 0.5), BASE_FREQUENCY(16.0, 20000), OCTAVES(
@@ -207,7 +188,7 @@ public class TextSound {
 
 	}
 
-	public static void runStuff() throws Exception {
+	public static synchronized void runStuff() throws Exception {
 
 		// Reset initial settings
 		resetSettings();
@@ -228,7 +209,7 @@ public class TextSound {
 		volume = 10200d;
 	}
 
-	public static void doStartPlayer(String input) {
+	public static synchronized void doStartPlayer(String input) {
 		if (player == null) {
 			player = new Player();
 		} else if (player != null) {
@@ -267,7 +248,7 @@ public class TextSound {
 		player.getManagedPlayer().finish();
 	}
 
-	public static void doSaveAsMidi(String input, String output) throws Exception {
+	public static synchronized void doSaveAsMidi(String input, String output) throws Exception {
 		pattern = processString(input, pattern);
 
 		File file = new File(output);
@@ -275,27 +256,15 @@ public class TextSound {
 		midiFileManager.savePatternToMidi(pattern, file);
 	}
 
-	public static void doSaveAsWAV(String input, String output) throws Exception {
+	public static synchronized void doSaveAsWAV(String input, String output) throws Exception {
 		pattern = processString(input, pattern);
 
-		// Save to MIDI first
-		File midiFile = new File(output + ".mid");
-		MidiFileManager midiFileManager = new MidiFileManager();
-		midiFileManager.savePatternToMidi(pattern, midiFile);
-
-		// Convert MIDI to WAV
-		AudioInputStream stream = AudioSystem.getAudioInputStream(midiFile);
+		// Render straight to WAV with the software synthesizer
 		File file = new File(new File(output) + ".wav");
-		AudioSystem.write(stream, AudioFileFormat.Type.WAVE, file);
-
-		// Delete MIDI file
-		midiFile.delete();
-
-		// Close stream
-		stream.close();
+		WavRenderer.render(StaccatoScoreWriter.toSequence(pattern), file);
 	}
 
-	public static void doPause() {
+	public static synchronized void doPause() {
 		try {
 			if (player.getManagedPlayer().isPlaying()) {
 				player.getManagedPlayer().pause();
@@ -312,46 +281,29 @@ public class TextSound {
 	 * Turn the input string into a sound string that can be played by jFugue
 	 */
 	private static Pattern processString(String input, Pattern pattern) {
-		// Construct URL to WordNet Dictionary directory on the computer
-		String wordNetDirectory = "WordNet-3.0";
-		String path = wordNetDirectory + File.separator + "dict";
-		URL url = null;
-		try {
-			url = new URL("file", null, path);
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		}
-
-		// Construct the Dictionary object and open it
-		dict = new Dictionary(url);
-		try {
-			dict.open();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// Create CoreNLP document
-		Document doc = new Document(input);
+		// Annotate the whole input once, words are read by position so repeated words keep their own POS and lemma
+		return processTokens(SentimentService.getInstance().annotate(input), pattern);
+	}
 
-		// Count
-		int wordCount;
+	/**
+	 * Turn annotated text into a sound string that can be played by jFugue
+	 */
+	static Pattern processTokens(TokenTable tokens, Pattern pattern) {
 		char posletter;
 
 		// Iterate sentences in input text
-		for (Sentence sent : doc.sentences()) {
-
-			List<String> words = sent.words();
+		for (int sentence = 0; sentence < tokens.sentenceCount(); sentence++) {
 
 			// Iterate words
-			for (String word : words) {
+			for (int wordCount = tokens.sentenceStart(sentence); wordCount < tokens.sentenceEnd(sentence); wordCount++) {
+				String word = tokens.word(wordCount);
 				//System.out.println(word);
-				wordCount = words.indexOf(word);
 
 				double theRestLength = restLength;
 
 				if (perWord) {
-					//System.out.println(sent.posTag(wordCount));
-					posletter = sent.posTag(wordCount).charAt(0);
+					//System.out.println(tokens.posTag(wordCount));
+					posletter = tokens.posTag(wordCount).charAt(0);
 					//System.out.println(posletter);
 					/*if ("JNRV".contains(String.valueOf(posletter))) {
 						sonifyWord(items, sent.lemma(wordCount), posletter, pattern);
@@ -362,10 +314,10 @@ public class TextSound {
 					}*/
 
 					if (java.util.regex.Pattern.matches("[\\p{Punct}\\p{IsPunctuation}]", word)) {
-						sonifyWord(word, sent.lemma(wordCount), 'S', pattern);
+						sonifyWord(word, tokens.lemma(wordCount), 'S', pattern);
 					} else {
 						//System.out.println("POS : " + posletter);
-						sonifyWord(word, sent.lemma(wordCount), posletter, pattern);
+						sonifyWord(word, tokens.lemma(wordCount), posletter, pattern);
 					}
 					//System.out.println("Sentiment Analysis (" + word + ") : " + analyse(word));
 				}
@@ -382,32 +334,14 @@ public class TextSound {
 
 			// Sentiment Analysis
 			//System.out.println("Sentiment of sentence : " + sent.sentiment());
-			pattern.add(" #(SENTENCE[" + sent.sentiment() + "])");
+			pattern.add(" #(SENTENCE[" + tokens.sentenceSentimentName(sentence) + "])");
 		}
 
 		System.out.println(pattern.toString());
 		return pattern;
 	}
 
-	public static void streamText(RealtimePlayer realtimePlayer, StringBuilder lastWord, boolean isWord, char ch, int charNum) {
-		// Construct URL to WordNet Dictionary directory on the computer
-		String wordNetDirectory = "WordNet-3.0";
-		String path = wordNetDirectory + File.separator + "dict";
-		URL url = null;
-		try {
-			url = new URL("file", null, path);
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		}
-
-		// Construct the Dictionary object and open it
-		dict = new Dictionary(url);
-		try {
-			dict.open();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
+	public static synchronized void streamText(RealtimePlayer realtimePlayer, StringBuilder lastWord, boolean isWord, char ch, int charNum) {
 		// Count
 		int wordCount;
 		char posletter;
@@ -450,7 +384,8 @@ public class TextSound {
 		// Pattern transformed by sentiment values
 		Pattern transformedPattern = new Pattern();
 
-		Set<Integer> wordTypes = new HashSet<>();
+		// Bit n set for lexicographer file n
+		long wordTypes = 0;
 
 		int posNumber = 0;
 
@@ -463,56 +398,34 @@ public class TextSound {
 				case 'V': posNumber = POS.NUM_VERB; break;
 			}
 
-			//System.out.println(posNumber);
-			IIndexWord idxWord = dict.getIndexWord(wordLemma, POS.getPartOfSpeech(posNumber));
-			//System.out.println("idxWord : " + idxWord);
-
 			// Store associated lexnames if found in WordNet
-			if (idxWord != null) {
-				// Loop to find all lexnames
-				//int x = idxWord.getTagSenseCount();
-				int x = idxWord.getWordIDs().size();
-				//System.out.println("Number of wordIDs : " + idxWord.getWordIDs().size());
-
-				for (int i = 0; i < x; i++) {
-					IWordID wordID = idxWord.getWordIDs().get(i);
-					IWord word = dict.getWord(wordID);
-
-					//System.out.println("Id = " + wordID);
-					//System.out.println(" Lemma = " + word.getLemma());
-					//System.out.println(" Gloss = " + word.getSynset().getGloss());
-					ISynset synset = word.getSynset();
-					String LexFileName = synset.getLexicalFile().getName();
-					//System.out.println("Lexical Name : "+ LexFileName + ":" + synset.getLexicalFile().getNumber());
-					wordTypes.add(synset.getLexicalFile().getNumber());
-				}
-			}
-			//System.out.println(wordTypes);
+			wordTypes = WordNet.getInstance().getLexFileMask(wordLemma, POS.getPartOfSpeech(posNumber));
 
 		// Other POStags
 		} else {
 			switch (posLetter) {
 				// Determiner
-				case 'D': wordTypes.add(46); break;
+				case 'D': wordTypes = 1L << 46; break;
 				// Modal
-				case 'M': wordTypes.add(45); break;
+				case 'M': wordTypes = 1L << 45; break;
 				// Pronouns / Predeterminer / Possessive ending
-				case 'P': wordTypes.add(51); break;
+				case 'P': wordTypes = 1L << 51; break;
 				// Preposition
-				case 'I': wordTypes.add(48); break;
+				case 'I': wordTypes = 1L << 48; break;
 				// Symbols
-				case 'S' : wordTypes.add(46); break;
+				case 'S' : wordTypes = 1L << 46; break;
 			}
 		}
 
 		// First LGC of word will inherit the word as lyric item, sentiment analysis value, and any other NLP related data
 		if (lexCount == 0) {
 			pattern.add(" '(" + originalWord + ")");
-			pattern.add(" #(SA[" + analyse(originalWord) + "], " + "LGC" + wordTypes + ", POS[" + posLetter + "]" +  ")");
+			pattern.add(" #(SA[" + analyse(originalWord) + "], " + "LGC" + LexIndex.toString(wordTypes) + ", POS[" + posLetter + "]" +  ")");
 		}
 
 		// Iterate through list of lexnames for each word
-		for (double thisValue : wordTypes) {
+		for (long remaining = wordTypes; remaining != 0; remaining &= remaining - 1) {
+			int thisValue = Long.numberOfTrailingZeros(remaining);
 			//System.out.println(thisValue);
 			// Reset to base settings
 			resetSettings();
@@ -521,7 +434,7 @@ public class TextSound {
 			pattern.add(":CE(10,64)");
 
 			// Set voice
-			if (wordTypes.size() > 1) {
+			if (Long.bitCount(wordTypes) > 1) {
 				// Skip Voice channel 9 as that is for percussion instruments
 				if (lexCount == 9) {
 					lexCount++;
@@ -1107,15 +1020,7 @@ public class TextSound {
 	}
 
 	private static int analyse(String text) {
-		Properties props = new Properties();
-		props.setProperty("annotators", "tokenize, ssplit, pos, parse, sentiment");
-		StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-		Annotation annotation = pipeline.process(text);
-		for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
-			Tree tree = sentence.get(SentimentCoreAnnotations.SentimentAnnotatedTree.class);
-			return RNNCoreAnnotations.getPredictedClass(tree);
-		}
-		return 0;
+		return SentimentService.getInstance().getSentiment(text);
 	}
 
 	private static double getLog(double x, double base) {
@@ -0,0 +1,213 @@
+package com.gtwm.sound;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.neural.rnn.RNNCoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.sentiment.SentimentCoreAnnotations;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-token NLP data for a whole text: words, POS tags, lemmas and sentiment values,
+ * filled from a single CoreNLP annotation pass and read by token index.
+ */
+public class TokenTable {
+
+    // Sentence sentiment names, indexed by sentiment class 0 to 4
+    static final String[] SENTIMENT_NAMES = {"VERY_NEGATIVE", "NEGATIVE", "NEUTRAL", "POSITIVE", "VERY_POSITIVE"};
+
+    private final String[] words;
+    private final String[] posTags;
+    private final String[] lemmas;
+    private final byte[] sentiments;
+
+    // Index of the first token of each sentence, plus one entry for the end of the last sentence
+    private final int[] sentenceStarts;
+    private final byte[] sentenceSentiments;
+
+    private TokenTable(String[] words, String[] posTags, String[] lemmas, byte[] sentiments,
+                       int[] sentenceStarts, byte[] sentenceSentiments) {
+        this.words = words;
+        this.posTags = posTags;
+        this.lemmas = lemmas;
+        this.sentiments = sentiments;
+        this.sentenceStarts = sentenceStarts;
+        this.sentenceSentiments = sentenceSentiments;
+    }
+
+    /**
+     * Copy the data needed for sonification out of an annotated document
+     * @param annotation
+     * @return
+     */
+    static TokenTable fromAnnotation(Annotation annotation) {
+        List<String> words = new ArrayList<>();
+        List<String> posTags = new ArrayList<>();
+        List<String> lemmas = new ArrayList<>();
+        List<Integer> sentiments = new ArrayList<>();
+        List<CoreMap> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+        int[] sentenceStarts = new int[sentences.size() + 1];
+        byte[] sentenceSentiments = new byte[sentences.size()];
+
+        for (int s = 0; s < sentences.size(); s++) {
+            CoreMap sentence = sentences.get(s);
+            List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+            Tree tree = sentence.get(SentimentCoreAnnotations.SentimentAnnotatedTree.class);
+            int sentenceSentiment = RNNCoreAnnotations.getPredictedClass(tree);
+            if (sentenceSentiment < 0) {
+                sentenceSentiment = 2;
+            }
+
+            // Word sentiment is read from the pre-terminal node above each leaf of the sentiment tree
+            List<Tree> leaves = tree.getLeaves();
+            boolean leavesMatchTokens = leaves.size() == tokens.size();
+
+            sentenceStarts[s] = words.size();
+            sentenceSentiments[s] = (byte) sentenceSentiment;
+            for (int t = 0; t < tokens.size(); t++) {
+                CoreLabel token = tokens.get(t);
+                int tokenSentiment = sentenceSentiment;
+                if (leavesMatchTokens) {
+                    int predicted = RNNCoreAnnotations.getPredictedClass(leaves.get(t).parent(tree));
+                    if (predicted >= 0) {
+                        tokenSentiment = predicted;
+                    }
+                }
+                words.add(token.word());
+                posTags.add(token.tag());
+                lemmas.add(token.lemma());
+                sentiments.add(tokenSentiment);
+            }
+        }
+        sentenceStarts[sentences.size()] = words.size();
+
+        byte[] sentimentValues = new byte[sentiments.size()];
+        for (int i = 0; i < sentimentValues.length; i++) {
+            sentimentValues[i] = sentiments.get(i).byteValue();
+        }
+        return new TokenTable(words.toArray(new String[0]), posTags.toArray(new String[0]),
+                lemmas.toArray(new String[0]), sentimentValues, sentenceStarts, sentenceSentiments);
+    }
+
+    /**
+     * Join tables of consecutive pieces of text into one
+     * @param parts
+     * @return
+     */
+    static TokenTable concat(List<TokenTable> parts) {
+        int tokenCount = 0;
+        int sentenceCount = 0;
+        for (TokenTable part : parts) {
+            tokenCount += part.size();
+            sentenceCount += part.sentenceCount();
+        }
+        String[] words = new String[tokenCount];
+        String[] posTags = new String[tokenCount];
+        String[] lemmas = new String[tokenCount];
+        byte[] sentiments = new byte[tokenCount];
+        int[] sentenceStarts = new int[sentenceCount + 1];
+        byte[] sentenceSentiments = new byte[sentenceCount];
+
+        int token = 0;
+        int sentence = 0;
+        for (TokenTable part : parts) {
+            System.arraycopy(part.words, 0, words, token, part.size());
+            System.arraycopy(part.posTags, 0, posTags, token, part.size());
+            System.arraycopy(part.lemmas, 0, lemmas, token, part.size());
+            System.arraycopy(part.sentiments, 0, sentiments, token, part.size());
+            for (int s = 0; s < part.sentenceCount(); s++) {
+                sentenceStarts[sentence + s] = token + part.sentenceStarts[s];
+            }
+            System.arraycopy(part.sentenceSentiments, 0, sentenceSentiments, sentence, part.sentenceCount());
+            token += part.size();
+            sentence += part.sentenceCount();
+        }
+        sentenceStarts[sentenceCount] = tokenCount;
+        return new TokenTable(words, posTags, lemmas, sentiments, sentenceStarts, sentenceSentiments);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size());
+        out.writeInt(sentenceCount());
+        for (int s = 0; s < sentenceCount(); s++) {
+            out.writeInt(sentenceStarts[s]);
+            out.writeByte(sentenceSentiments[s]);
+        }
+        for (int t = 0; t < size(); t++) {
+            out.writeUTF(words[t]);
+            out.writeUTF(posTags[t]);
+            out.writeUTF(lemmas[t]);
+            out.writeByte(sentiments[t]);
+        }
+    }
+
+    static TokenTable read(DataInput in) throws IOException {
+        int tokenCount = in.readInt();
+        int sentenceCount = in.readInt();
+        int[] sentenceStarts = new int[sentenceCount + 1];
+        byte[] sentenceSentiments = new byte[sentenceCount];
+        for (int s = 0; s < sentenceCount; s++) {
+            sentenceStarts[s] = in.readInt();
+            sentenceSentiments[s] = in.readByte();
+        }
+        sentenceStarts[sentenceCount] = tokenCount;
+        String[] words = new String[tokenCount];
+        String[] posTags = new String[tokenCount];
+        String[] lemmas = new String[tokenCount];
+        byte[] sentiments = new byte[tokenCount];
+        for (int t = 0; t < tokenCount; t++) {
+            words[t] = in.readUTF();
+            posTags[t] = in.readUTF();
+            lemmas[t] = in.readUTF();
+            sentiments[t] = in.readByte();
+        }
+        return new TokenTable(words, posTags, lemmas, sentiments, sentenceStarts, sentenceSentiments);
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    public int sentenceCount() {
+        return sentenceSentiments.length;
+    }
+
+    public int sentenceStart(int sentence) {
+        return sentenceStarts[sentence];
+    }
+
+    public int sentenceEnd(int sentence) {
+        return sentenceStarts[sentence + 1];
+    }
+
+    public String word(int token) {
+        return words[token];
+    }
+
+    public String posTag(int token) {
+        return posTags[token];
+    }
+
+    public String lemma(int token) {
+        return lemmas[token];
+    }
+
+    public int sentiment(int token) {
+        return sentiments[token];
+    }
+
+    public int sentenceSentiment(int sentence) {
+        return sentenceSentiments[sentence];
+    }
+
+    public String sentenceSentimentName(int sentence) {
+        return SENTIMENT_NAMES[sentenceSentiments[sentence]];
+    }
+}
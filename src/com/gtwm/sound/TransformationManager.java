@@ -1,6 +1,13 @@
 package com.gtwm.sound;
 
+import org.jfugue.theory.Note;
+
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class TransformationManager {
 
@@ -137,4 +144,363 @@ public class TransformationManager {
             }
         }
     }
+
+    /**
+     * Compile the instructions once per composition
+     * @param instructions
+     * @return rules in the same order as the instructions, leaving out any whose values cannot be read
+     */
+    static CompiledInstruction[] compile(List<Instruction> instructions) {
+        List<CompiledInstruction> rules = new ArrayList<>(instructions.size());
+        for (Instruction instruction : instructions) {
+            try {
+                rules.add(new CompiledInstruction(instruction));
+            } catch (RuntimeException e) {
+                System.out.println("Skipping instruction " + instruction.mod + " " + instruction.modValue + " " +
+                        instruction.soundMod + " " + instruction.soundModValue + ": " + e);
+            }
+        }
+        return rules.toArray(new CompiledInstruction[0]);
+    }
+
+    /**
+     * An Instruction with its trigger and sound values parsed ahead of time,
+     * so matching and applying it to a note does no string parsing
+     */
+    static class CompiledInstruction {
+
+        enum CharacterClass { VOWELS, CONSONANTS, UPPERCASE, LOWERCASE, NONE }
+
+        final Instruction instruction;
+
+        final Instruction.Mods mod;
+        final Instruction.ModOperators modOperator;
+        final Instruction.SoundMods soundMod;
+        final Instruction.ChangeModes changeMode;
+
+        // Trigger values, only the one for this mod is set
+        final int posOrdinal;
+        final double modNumber;
+        final String modString;
+        final char modChar;
+        final CharacterClass characterClass;
+
+        // Sound values, only the ones for this sound mod are set
+        final double soundNumber;
+        final int soundInt;
+        final long soundLong;
+        final String instrument;
+
+        CompiledInstruction(Instruction i) {
+            instruction = i;
+            mod = i.mod;
+            modOperator = i.modOperator;
+            soundMod = i.soundMod;
+            changeMode = i.changeMode;
+
+            int posOrdinal = -1;
+            double modNumber = Double.NaN;
+            char modChar = 0;
+            CharacterClass characterClass = CharacterClass.NONE;
+            if (mod != null) {
+                switch (mod) {
+                    case WORDTYPE:
+                        posOrdinal = Integer.parseInt(i.modValue);
+                        break;
+                    case WORDLENGTH:
+                    case LGC:
+                        modNumber = Double.parseDouble(i.modValue);
+                        break;
+                    case PUNCTUATION:
+                        modChar = i.modValue.isEmpty() ? 0 : i.modValue.charAt(0);
+                        break;
+                    case CHARACTER:
+                        switch (i.modValue) {
+                            case "vowels": characterClass = CharacterClass.VOWELS; break;
+                            case "consonants": characterClass = CharacterClass.CONSONANTS; break;
+                            case "uppercase": characterClass = CharacterClass.UPPERCASE; break;
+                            case "lowercase": characterClass = CharacterClass.LOWERCASE; break;
+                        }
+                        break;
+                }
+            }
+            this.posOrdinal = posOrdinal;
+            this.modNumber = modNumber;
+            this.modString = i.modValue;
+            this.modChar = modChar;
+            this.characterClass = characterClass;
+
+            double soundNumber = 0;
+            int soundInt = 0;
+            long soundLong = 0;
+            String instrument = null;
+            if (soundMod != null) {
+                switch (soundMod) {
+                    case TEMPO:
+                    case NOTE_DURATION:
+                    case OCTAVE:
+                    case VOLUME:
+                        soundNumber = Double.parseDouble(i.soundModValue);
+                        break;
+                    case INSTRUMENT:
+                        instrument = i.soundModValue;
+                        break;
+                    case MIDI_NOTE:
+                        // Note name resolved to a frequency an octave up
+                        soundNumber = Note.getFrequencyForNote(i.soundModValue) * 2;
+                        break;
+                    case ATTACK:
+                    case DECAY:
+                    case PAN:
+                        soundInt = Integer.parseInt(i.soundModValue);
+                        break;
+                    case PITCHBEND:
+                        if (changeMode == Instruction.ChangeModes.SET) {
+                            soundLong = Long.parseLong(i.soundModValue);
+                        } else {
+                            soundNumber = Double.parseDouble(i.soundModValue);
+                        }
+                        break;
+                }
+            }
+            this.soundNumber = soundNumber;
+            this.soundInt = soundInt;
+            this.soundLong = soundLong;
+            this.instrument = instrument;
+        }
+
+        /**
+         * @param ch
+         * @return true if a CHARACTER rule applies to the character
+         */
+        boolean matchesCharacter(char ch) {
+            switch (characterClass) {
+                case VOWELS: return "AEIOUaeiou".indexOf(ch) != -1;
+                case CONSONANTS: return "AEIOUaeiou".indexOf(ch) < 0;
+                case UPPERCASE: return Character.isUpperCase(ch);
+                case LOWERCASE: return Character.isLowerCase(ch);
+                default: return false;
+            }
+        }
+
+        /**
+         * @param length
+         * @return true if a WORDLENGTH rule applies to a word of this length
+         */
+        boolean matchesLength(int length) {
+            if (modOperator == null) {
+                return false;
+            }
+            switch (modOperator) {
+                case EQUALTO: return modNumber == length;
+                case LARGERTHAN: return modNumber < length;
+                case LESSTHAN: return modNumber > length;
+                default: return false;
+            }
+        }
+
+        public String toString() {
+            return instruction.toString();
+        }
+    }
+
+    /**
+     * Compiled rules grouped by what triggers them, so a token only visits the rules that can fire for it.
+     * Lookups return rule positions in ascending order, which is the order the rules are applied in.
+     */
+    static class RuleIndex {
+
+        private static final int[] NONE = new int[0];
+
+        // Characters with a precomputed list, others are checked against every character rule
+        private static final int ASCII = 128;
+
+        private final CompiledInstruction[] rules;
+
+        // WORDTYPE rules by POS ordinal
+        private final int[][] byPos;
+
+        // LGC rules by lexicographer file number
+        private final int[][] byLgc = new int[64][];
+
+        // PUNCTUATION rules by word
+        private final Map<String, int[]> byPunctuation = new HashMap<>();
+
+        // WORDLENGTH rules by word length, lengths past the end all match the last bucket
+        private final int[][] byLength;
+
+        // CHARACTER and PUNCTUATION rules that apply to each ASCII character
+        private final int[][] byCharacter = new int[ASCII][];
+        private final int[] characterRules;
+
+        RuleIndex(CompiledInstruction[] rules) {
+            this.rules = rules;
+
+            int maxPos = -1;
+            double maxLength = 0;
+            List<Integer> characterRuleList = new ArrayList<>();
+            for (int r = 0; r < rules.length; r++) {
+                CompiledInstruction rule = rules[r];
+                if (rule.mod == Instruction.Mods.WORDTYPE) {
+                    maxPos = Math.max(maxPos, rule.posOrdinal);
+                } else if (rule.mod == Instruction.Mods.WORDLENGTH) {
+                    maxLength = Math.max(maxLength, rule.modNumber);
+                } else if (rule.mod == Instruction.Mods.CHARACTER || rule.mod == Instruction.Mods.PUNCTUATION) {
+                    characterRuleList.add(r);
+                }
+            }
+            characterRules = toArray(characterRuleList);
+
+            List<List<Integer>> pos = new ArrayList<>();
+            for (int p = 0; p <= maxPos; p++) {
+                pos.add(new ArrayList<Integer>());
+            }
+            List<List<Integer>> lgc = new ArrayList<>();
+            for (int n = 0; n < byLgc.length; n++) {
+                lgc.add(new ArrayList<Integer>());
+            }
+            // One bucket per length up to the first length above every threshold
+            int lengthBuckets = (int) Math.min(Math.floor(maxLength) + 2, 4096);
+            List<List<Integer>> length = new ArrayList<>();
+            for (int l = 0; l < lengthBuckets; l++) {
+                length.add(new ArrayList<Integer>());
+            }
+            Map<String, List<Integer>> punctuation = new HashMap<>();
+
+            for (int r = 0; r < rules.length; r++) {
+                CompiledInstruction rule = rules[r];
+                if (rule.mod == null) {
+                    continue;
+                }
+                switch (rule.mod) {
+                    case WORDTYPE:
+                        if (rule.posOrdinal >= 0) {
+                            pos.get(rule.posOrdinal).add(r);
+                        }
+                        break;
+                    case LGC:
+                        // Lexnames are whole numbers, other values never match
+                        if (rule.modNumber >= 0 && rule.modNumber < byLgc.length && rule.modNumber == Math.floor(rule.modNumber)) {
+                            lgc.get((int) rule.modNumber).add(r);
+                        }
+                        break;
+                    case WORDLENGTH:
+                        for (int l = 0; l < lengthBuckets; l++) {
+                            if (rule.matchesLength(l)) {
+                                length.get(l).add(r);
+                            }
+                        }
+                        break;
+                    case PUNCTUATION:
+                        if (rule.modString != null) {
+                            List<Integer> list = punctuation.get(rule.modString);
+                            if (list == null) {
+                                list = new ArrayList<>();
+                                punctuation.put(rule.modString, list);
+                            }
+                            list.add(r);
+                        }
+                        break;
+                }
+            }
+
+            byPos = new int[pos.size()][];
+            for (int p = 0; p < byPos.length; p++) {
+                byPos[p] = toArray(pos.get(p));
+            }
+            for (int n = 0; n < byLgc.length; n++) {
+                byLgc[n] = toArray(lgc.get(n));
+            }
+            byLength = new int[lengthBuckets][];
+            for (int l = 0; l < lengthBuckets; l++) {
+                byLength[l] = toArray(length.get(l));
+            }
+            for (Map.Entry<String, List<Integer>> entry : punctuation.entrySet()) {
+                byPunctuation.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            for (char ch = 0; ch < ASCII; ch++) {
+                byCharacter[ch] = scanCharacter(ch);
+            }
+        }
+
+        CompiledInstruction get(int rule) {
+            return rules[rule];
+        }
+
+        int[] forPos(int posOrdinal) {
+            return posOrdinal < byPos.length ? byPos[posOrdinal] : NONE;
+        }
+
+        int[] forLgc(int lexname) {
+            return lexname >= 0 && lexname < byLgc.length ? byLgc[lexname] : NONE;
+        }
+
+        int[] forLength(int length) {
+            return byLength[Math.min(length, byLength.length - 1)];
+        }
+
+        int[] forPunctuation(String word) {
+            int[] matching = byPunctuation.get(word);
+            return matching == null ? NONE : matching;
+        }
+
+        /**
+         * CHARACTER and PUNCTUATION rules that apply to a character in character mode
+         * @param ch
+         * @return
+         */
+        int[] forCharacter(char ch) {
+            return ch < ASCII ? byCharacter[ch] : scanCharacter(ch);
+        }
+
+        private int[] scanCharacter(char ch) {
+            int count = 0;
+            int[] matching = new int[characterRules.length];
+            for (int r : characterRules) {
+                CompiledInstruction rule = rules[r];
+                if (rule.mod == Instruction.Mods.CHARACTER ? rule.matchesCharacter(ch) : ch == rule.modChar) {
+                    matching[count++] = r;
+                }
+            }
+            return count == 0 ? NONE : Arrays.copyOf(matching, count);
+        }
+
+        /**
+         * Merge two ascending lists of rule positions
+         * @param a
+         * @param b
+         * @return
+         */
+        static int[] merge(int[] a, int[] b) {
+            if (a.length == 0) {
+                return b;
+            }
+            if (b.length == 0) {
+                return a;
+            }
+            int[] merged = new int[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                merged[k++] = a[i] < b[j] ? a[i++] : b[j++];
+            }
+            while (i < a.length) {
+                merged[k++] = a[i++];
+            }
+            while (j < b.length) {
+                merged[k++] = b[j++];
+            }
+            return merged;
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            if (list.isEmpty()) {
+                return NONE;
+            }
+            int[] array = new int[list.size()];
+            for (int k = 0; k < array.length; k++) {
+                array[k] = list.get(k);
+            }
+            return array;
+        }
+    }
 }
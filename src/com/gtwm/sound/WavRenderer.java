@@ -0,0 +1,357 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Renders a composition to a WAV file with the JDK's software synthesizer, without a temporary MIDI file.
+ *
+ * Messages are sent to the synthesizer's audio stream as the composer makes them safe to play, and the PCM it renders
+ * is written to the file a block at a time, so memory does not grow with the length of the piece. The stream is opened
+ * through AudioSynthesizer.openStream, which Java 9 and later only allow with
+ * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED, set in the jar's manifest. Without it a renderer cannot be
+ * made, except by render() for a composition that is already in memory, which is then rendered by the sound system's
+ * MIDI file reader instead.
+ */
+public class WavRenderer implements NoteSink {
+
+    // Override with -Dsingling.wav.sampleRate and -Dsingling.wav.bits (8, 16 or 24)
+    private static final float DEFAULT_SAMPLE_RATE = 44100;
+    private static final int DEFAULT_BITS = 16;
+
+    private static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = 4096;
+    private static final int HEADER_SIZE = 44;
+    private static final int META_END_OF_TRACK = 0x2F;
+
+    // Let the last notes ring
+    private static final long RELEASE_MICROS = 2000000;
+
+    // Until the first tempo event, as in MIDI files
+    private static final long DEFAULT_MICROS_PER_QUARTER = 500000;
+
+    private final FileChannel out;
+    private final AudioFormat format;
+    private final int resolution;
+    private final ByteBuffer block;
+    private long frames;
+
+    // Rendering while composing
+    private Synthesizer synthesizer;
+    private Receiver receiver;
+    private AudioInputStream audio;
+    private final PriorityQueue<MidiFileWriter.Pending> pending = new PriorityQueue<>();
+    private long order;
+    private long lastMicros;
+
+    // Tempo map, ticks are turned into time from the last tempo change
+    private long microsPerQuarter = DEFAULT_MICROS_PER_QUARTER;
+    private long tempoTick;
+    private long tempoMicros;
+
+    private static final String ADD_EXPORTS = "--add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED";
+
+    // Rendering once finished, for a composition already in memory when the synthesizer's stream cannot be opened
+    private ByteArrayOutputStream midi;
+    private MidiFileWriter midiWriter;
+
+    /**
+     * @param file
+     * @throws IOException also if the synthesizer's stream cannot be opened
+     */
+    public WavRenderer(File file) throws IOException {
+        this(file, sampleRate(), bits(), MidiScoreWriter.RESOLUTION);
+    }
+
+    /**
+     * @param file
+     * @param sampleRate
+     * @param bits 8, 16 or 24
+     * @param resolution ticks per quarter note of the messages
+     * @throws IOException also if the synthesizer's stream cannot be opened
+     */
+    public WavRenderer(File file, float sampleRate, int bits, int resolution) throws IOException {
+        this(file, sampleRate, bits, resolution, false);
+    }
+
+    /**
+     * @param file
+     * @param sampleRate
+     * @param bits
+     * @param resolution
+     * @param inMemory the whole composition is already in memory, so it may be rendered once finished
+     * @throws IOException
+     */
+    private WavRenderer(File file, float sampleRate, int bits, int resolution, boolean inMemory) throws IOException {
+        if (bits != 8 && bits != 16 && bits != 24) {
+            throw new IllegalArgumentException("WAV files are written with 8, 16 or 24 bits, not " + bits);
+        }
+        // 8 bit WAV samples are unsigned
+        this.format = new AudioFormat(bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                sampleRate, bits, CHANNELS, CHANNELS * bits / 8, sampleRate, false);
+        this.resolution = resolution;
+        this.block = ByteBuffer.allocate(BLOCK_FRAMES * format.getFrameSize());
+
+        try {
+            synthesizer = MidiSystem.getSynthesizer();
+            audio = openStream(synthesizer, format);
+            if (audio != null) {
+                receiver = synthesizer.getReceiver();
+            }
+        } catch (MidiUnavailableException e) {
+            audio = null;
+        }
+        if (audio == null) {
+            if (synthesizer != null) {
+                synthesizer.close();
+                synthesizer = null;
+            }
+            if (!inMemory) {
+                // Rendering afterwards would keep the whole piece in memory
+                throw new IOException("The synthesizer's audio stream is not available, run Java with " + ADD_EXPORTS);
+            }
+            System.out.println("Synthesizer stream not available, rendering WAV from memory. Run Java with " + ADD_EXPORTS);
+            midi = new ByteArrayOutputStream();
+            midiWriter = new MidiFileWriter(Channels.newChannel(midi), resolution);
+        }
+
+        out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        // Sizes are filled in when the file is finished
+        out.write(ByteBuffer.allocate(HEADER_SIZE));
+    }
+
+    /**
+     * Render a whole composition, from memory if the synthesizer's stream cannot be opened
+     * @param buffer
+     * @param file
+     * @throws IOException
+     */
+    public static void render(NoteBuffer buffer, File file) throws IOException {
+        WavRenderer renderer = new WavRenderer(file, sampleRate(), bits(), buffer.getResolution(), true);
+        buffer.reader().read(renderer);
+        renderer.finish();
+    }
+
+    /**
+     * Render a sequence, such as one parsed from a JFugue pattern
+     * @param sequence
+     * @param file
+     * @throws IOException
+     */
+    public static void render(Sequence sequence, File file) throws IOException {
+        WavRenderer renderer = new WavRenderer(file, sampleRate(), bits(), sequence.getResolution(), true);
+        Track[] tracks = sequence.getTracks();
+        for (int t = 0; t < tracks.length; t++) {
+            for (int e = 0; e < tracks[t].size(); e++) {
+                MidiEvent event = tracks[t].get(e);
+                MidiMessage message = event.getMessage();
+                if (message instanceof MetaMessage && ((MetaMessage) message).getType() == META_END_OF_TRACK) {
+                    continue;
+                }
+                int channel = message instanceof ShortMessage ? ((ShortMessage) message).getChannel() : t % 16;
+                renderer.message(channel, message, event.getTick());
+            }
+        }
+        renderer.finish();
+    }
+
+    private static float sampleRate() {
+        return Float.parseFloat(System.getProperty("singling.wav.sampleRate", String.valueOf(DEFAULT_SAMPLE_RATE)));
+    }
+
+    private static int bits() {
+        return Integer.getInteger("singling.wav.bits", DEFAULT_BITS);
+    }
+
+    /**
+     * @param synthesizer
+     * @param format
+     * @return the synthesizer's rendered audio, or null if it cannot be opened
+     */
+    private static AudioInputStream openStream(Synthesizer synthesizer, AudioFormat format) {
+        try {
+            Class<?> audioSynthesizer = Class.forName("com.sun.media.sound.AudioSynthesizer");
+            if (audioSynthesizer.isInstance(synthesizer)) {
+                Method openStream = audioSynthesizer.getMethod("openStream", AudioFormat.class, Map.class);
+                return (AudioInputStream) openStream.invoke(synthesizer, format, null);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not exported from java.desktop
+        }
+        return null;
+    }
+
+    @Override
+    public void message(int channel, MidiMessage message, long tick) {
+        if (midiWriter != null) {
+            midiWriter.message(channel, message, tick);
+        } else {
+            pending.add(new MidiFileWriter.Pending(tick, order++, message));
+        }
+    }
+
+    @Override
+    public void flush(long safeTick) throws IOException {
+        if (midiWriter != null) {
+            midiWriter.flush(safeTick);
+            return;
+        }
+        while (!pending.isEmpty() && pending.peek().tick < safeTick) {
+            send(pending.poll());
+        }
+        render(micros(safeTick));
+    }
+
+    /**
+     * Render what is left and complete the file
+     * @throws IOException
+     */
+    @Override
+    public void finish() throws IOException {
+        try {
+            if (midiWriter != null) {
+                midiWriter.finish();
+                renderMidi();
+            } else {
+                while (!pending.isEmpty()) {
+                    send(pending.poll());
+                }
+                render(lastMicros + RELEASE_MICROS);
+            }
+            writeHeader();
+        } finally {
+            if (synthesizer != null) {
+                synthesizer.close();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Send a message to the synthesizer at its time in the piece
+     * @param event
+     */
+    private void send(MidiFileWriter.Pending event) {
+        long micros = micros(event.tick);
+        lastMicros = Math.max(lastMicros, micros);
+        MidiMessage message = event.message;
+        if (message instanceof ShortMessage) {
+            receiver.send(message, micros);
+        } else if (message instanceof MetaMessage && ((MetaMessage) message).getType() == NoteBuffer.META_TEMPO) {
+            byte[] data = ((MetaMessage) message).getData();
+            tempoMicros = micros;
+            tempoTick = event.tick;
+            microsPerQuarter = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        }
+    }
+
+    private long micros(long tick) {
+        return tempoMicros + (tick - tempoTick) * microsPerQuarter / resolution;
+    }
+
+    /**
+     * Write the synthesizer's audio up to a time
+     * @param micros
+     * @throws IOException
+     */
+    private void render(long micros) throws IOException {
+        long target = (long) (micros * (double) format.getFrameRate() / 1000000);
+        while (frames < target) {
+            int length = (int) Math.min(BLOCK_FRAMES, target - frames) * format.getFrameSize();
+            if (!writeBlock(audio, length)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Render the MIDI kept in memory with the sound system's MIDI file reader
+     * @throws IOException
+     */
+    private void renderMidi() throws IOException {
+        try (AudioInputStream rendered = AudioSystem.getAudioInputStream(new ByteArrayInputStream(midi.toByteArray()))) {
+            midi = null;
+            AudioInputStream converted = rendered.getFormat().matches(format) ? rendered : AudioSystem.getAudioInputStream(format, rendered);
+            while (writeBlock(converted, block.capacity())) {
+            }
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @param in
+     * @param length bytes, a whole number of frames
+     * @return false at the end of the stream
+     * @throws IOException
+     */
+    private boolean writeBlock(AudioInputStream in, int length) throws IOException {
+        byte[] bytes = block.array();
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        read -= read % format.getFrameSize();
+        if (read == 0) {
+            return false;
+        }
+        block.clear();
+        block.limit(read);
+        while (block.hasRemaining()) {
+            out.write(block);
+        }
+        frames += read / format.getFrameSize();
+        return true;
+    }
+
+    /**
+     * RIFF header with the sizes of the samples written
+     * @throws IOException
+     */
+    private void writeHeader() throws IOException {
+        long dataSize = frames * format.getFrameSize();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' }).putInt((int) Math.min(0xFFFFFFFFL, dataSize + HEADER_SIZE - 8))
+                .put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' }).putInt(16)
+                .putShort((short) 1)
+                .putShort((short) format.getChannels())
+                .putInt((int) format.getSampleRate())
+                .putInt((int) format.getSampleRate() * format.getFrameSize())
+                .putShort((short) format.getFrameSize())
+                .putShort((short) format.getSampleSizeInBits())
+                .put(new byte[] { 'd', 'a', 't', 'a' }).putInt((int) Math.min(0xFFFFFFFFL, dataSize));
+        header.flip();
+        while (header.hasRemaining()) {
+            out.write(header, header.position());
+        }
+    }
+}
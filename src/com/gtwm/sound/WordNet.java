@@ -0,0 +1,219 @@
+package com.gtwm.sound;
+
+import edu.mit.jwi.Dictionary;
+import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.RAMDictionary;
+import edu.mit.jwi.data.ILoadPolicy;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.IWordID;
+import edu.mit.jwi.item.POS;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Process-wide handle on the WordNet dictionary.
+ * The dictionary is opened on first use and stays open until close() is called.
+ * In memory mode the whole dictionary is loaded on a background thread, lookups
+ * are served from the files until loading has finished.
+ */
+public class WordNet {
+
+    // WordNet download is expected next to the application
+    static final String DIRECTORY = "WordNet-3.0";
+
+    private static final WordNet instance = new WordNet();
+
+    // JWI object
+    private IDictionary dict;
+
+    // Precomputed LGC index, used instead of the dictionary when LexIndexBuilder has been run
+    private volatile LexIndex lexIndex;
+    private boolean lexIndexChecked;
+
+    // Load the dictionary into memory, turn on with -Dsingling.wordnetInMemory=true
+    private boolean inMemory = Boolean.getBoolean("singling.wordnetInMemory");
+
+    private WordNet() {
+    }
+
+    public static WordNet getInstance() {
+        return instance;
+    }
+
+    /**
+     * URL to WordNet Dictionary directory on the computer
+     * @return
+     */
+    static URL getDictionaryURL() {
+        String path = DIRECTORY + File.separator + "dict";
+        try {
+            return new URL("file", null, path);
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Open the dictionary on a background thread so it is ready by the first composition
+     */
+    public void warmUp() {
+        Thread warmUpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getDictionary();
+            }
+        }, "WordNet warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    /**
+     * Open the dictionary if this is the first call
+     * @return
+     */
+    public synchronized IDictionary getDictionary() {
+        if (dict == null) {
+            long start = System.currentTimeMillis();
+            IDictionary opened;
+            if (inMemory) {
+                // Served from the files until loadIntoMemory() has finished
+                opened = new RAMDictionary(getDictionaryURL(), ILoadPolicy.NO_LOAD);
+            } else {
+                opened = new Dictionary(getDictionaryURL());
+            }
+            try {
+                opened.open();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            dict = opened;
+            System.out.println("WordNet opened in " + (System.currentTimeMillis() - start) + " ms");
+
+            if (inMemory) {
+                loadIntoMemory((RAMDictionary) opened);
+            }
+        }
+        return dict;
+    }
+
+    /**
+     * Load every WordNet file into memory on a background thread and report how long it took and roughly how much heap it uses
+     * @param ramDictionary
+     */
+    private void loadIntoMemory(final RAMDictionary ramDictionary) {
+        Thread loadThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Runtime runtime = Runtime.getRuntime();
+                long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+                long start = System.currentTimeMillis();
+                try {
+                    ramDictionary.load(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    // Dictionary closed while loading, keep using the files
+                    e.printStackTrace();
+                    return;
+                }
+                long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+                System.out.println("WordNet loaded into memory in " + (System.currentTimeMillis() - start) + " ms, about " +
+                        Math.max(0, (usedAfter - usedBefore) / (1024 * 1024)) + " MB");
+            }
+        }, "WordNet loader");
+        loadThread.setDaemon(true);
+        loadThread.start();
+    }
+
+    /**
+     * Lexicographer files (LGCs) of a lemma as a mask with bit n set for lexicographer file n
+     * @param lemma
+     * @param pos
+     * @return 0 if the lemma is not in WordNet
+     */
+    public long getLexFileMask(String lemma, POS pos) {
+        LexIndex index = getLexIndex();
+        if (index != null) {
+            return index.lookup(lemma, pos);
+        }
+
+        // Walk every sense of the word in the dictionary
+        IDictionary dictionary = getDictionary();
+        IIndexWord idxWord = dictionary.getIndexWord(lemma, pos);
+        long lexFiles = 0;
+        if (idxWord != null) {
+            for (IWordID wordID : idxWord.getWordIDs()) {
+                lexFiles |= 1L << dictionary.getWord(wordID).getSynset().getLexicalFile().getNumber();
+            }
+        }
+        return lexFiles;
+    }
+
+    /**
+     * Map the LGC index file the first time it is needed
+     * @return null if there is no index file
+     */
+    private LexIndex getLexIndex() {
+        LexIndex index = lexIndex;
+        if (index == null) {
+            synchronized (this) {
+                if (!lexIndexChecked) {
+                    lexIndexChecked = true;
+                    if (LexIndex.DEFAULT_FILE.exists()) {
+                        try {
+                            lexIndex = LexIndex.open(LexIndex.DEFAULT_FILE);
+                            System.out.println("LGC index " + LexIndex.DEFAULT_FILE + ": " + lexIndex.size() + " entries");
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+                index = lexIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Serve lookups from the given index instead of the index file, used by the tests
+     * @param index null to look words up in the dictionary
+     */
+    synchronized void setLexIndex(LexIndex index) {
+        lexIndex = index;
+        lexIndexChecked = true;
+    }
+
+    /**
+     * Takes effect the next time the dictionary is opened
+     * @param inMemory
+     */
+    public synchronized void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * @return true once lookups no longer touch the dictionary files
+     */
+    public synchronized boolean isLoadedInMemory() {
+        return dict instanceof RAMDictionary && ((RAMDictionary) dict).isLoaded();
+    }
+
+    public synchronized boolean isOpen() {
+        return dict != null && dict.isOpen();
+    }
+
+    /**
+     * Release the dictionary files, the next getDictionary() opens them again
+     */
+    public synchronized void close() {
+        if (dict != null) {
+            dict.close();
+            dict = null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.Sequence;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Composing the sentences of a text in parallel gives the same MIDI events as composing them one after another,
+ * compositions running at the same time do not change each other, and a repeated word is looked up by the lemma of
+ * each occurrence.
+ */
+public class ComposerTest {
+
+    // Compositions run at once by the stress test
+    private static final int COMPOSITIONS = 24;
+
+    public static void main(String[] args) throws Exception {
+        parallelMatchesSequential();
+        recordingReplaysIntoASequence();
+        concurrentCompositionsMatchSerialRuns();
+        repeatedWordKeepsItsOwnLemma();
+        System.out.println("ComposerTest passed");
+    }
+
+    static void parallelMatchesSequential() {
+        TokenTable tokens = TestSupport.text(60);
+        List<String> inOrder = TestSupport.composeInOrder(tokens);
+        TestSupport.check(inOrder.size() > 60, "too few events: " + inOrder.size());
+
+        Composer.clearSegmentCache();
+        TestSupport.assertEquals(inOrder, TestSupport.compose(TestSupport.builder(), tokens, false), "sequential composition");
+        Composer.clearSegmentCache();
+        TestSupport.assertEquals(inOrder, TestSupport.compose(TestSupport.builder(), tokens, true), "parallel composition");
+        // Every sentence from the segment cache
+        TestSupport.assertEquals(inOrder, TestSupport.compose(TestSupport.builder(), tokens, true), "cached composition");
+    }
+
+    static void recordingReplaysIntoASequence() {
+        ScoreRecording recording = new ScoreRecording(0);
+        recording.voiceAt(1, 0.5);
+        recording.note(60, 0.25, 64, 64);
+        Sequence sequence = recording.getSequence();
+
+        // Note on and off on channel 1, half a note in
+        List<String> events = TestSupport.events(sequence);
+        TestSupport.check(events.contains("0 " + MidiScoreWriter.toTicks(0.5) + " 91 3c 40"), "note on: " + events);
+        TestSupport.check(events.contains("0 " + MidiScoreWriter.toTicks(0.75) + " 81 3c 40"), "note off: " + events);
+    }
+
+    static void concurrentCompositionsMatchSerialRuns() throws Exception {
+        // Each composition has its own tempo and length, so none of them share cached sentences
+        final List<TokenTable> texts = new ArrayList<>();
+        List<List<String>> serial = new ArrayList<>();
+        Composer.clearSegmentCache();
+        for (int c = 0; c < COMPOSITIONS; c++) {
+            texts.add(TestSupport.text(20 + c));
+            serial.add(TestSupport.compose(TestSupport.builder().setTempo(60 + c), texts.get(c), c % 2 == 0));
+        }
+
+        Composer.clearSegmentCache();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> concurrent = new ArrayList<>();
+            for (int c = 0; c < COMPOSITIONS; c++) {
+                final int composition = c;
+                concurrent.add(threads.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return TestSupport.compose(TestSupport.builder().setTempo(60 + composition),
+                                texts.get(composition), composition % 2 == 0);
+                    }
+                }));
+            }
+            for (int c = 0; c < COMPOSITIONS; c++) {
+                TestSupport.assertEquals(serial.get(c), concurrent.get(c).get(), "composition " + c);
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    static void repeatedWordKeepsItsOwnLemma() {
+        WordNet.getInstance().setLexIndex(TestSupport.lexIndex(TestSupport.SAW_LEXFILES));
+        try {
+            TokenTable tokens = TestSupport.tokens(TestSupport.SAW);
+
+            Composer inOrder = TestSupport.builder().withBackend(ScoreWriter.Backend.STACCATO).build();
+            inOrder.compileRules();
+            inOrder.composeSentences(tokens);
+            checkSawLemmas(inOrder.getPattern().toString(), "composed in order");
+
+            Composer.clearSegmentCache();
+            Composer parallel = TestSupport.builder().withBackend(ScoreWriter.Backend.STACCATO).build();
+            parallel.composeTokens(tokens, ForkJoinPool.commonPool());
+            checkSawLemmas(parallel.getPattern().toString(), "composed in parallel");
+        } finally {
+            WordNet.getInstance().setLexIndex(null);
+        }
+    }
+
+    private static void checkSawLemmas(String staccato, String message) {
+        staccato = staccato.replaceAll("\\s+", " ");
+        int verb = staccato.indexOf("'saw #(SA[2], LGC[39], POS[VBD])");
+        int noun = staccato.indexOf("'saw #(SA[2], LGC[6], POS[NN])");
+        TestSupport.check(verb >= 0, message + ", first saw is not looked up as see: " + staccato);
+        TestSupport.check(noun > verb, message + ", second saw is not looked up as saw: " + staccato);
+    }
+}
@@ -0,0 +1,74 @@
+package com.gtwm.sound;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A file saved several times in quick succession is sonified once, after the saves stop.
+ */
+public class FolderWatcherTest {
+
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("singling.watch.debounce", String.valueOf(DEBOUNCE_MILLIS));
+        rendersOncePerDebounceWindow();
+        System.out.println("FolderWatcherTest passed");
+    }
+
+    static void rendersOncePerDebounceWindow() throws Exception {
+        Path directory = Files.createTempDirectory("singling");
+        Path text = directory.resolve("draft.txt");
+        final AtomicInteger renders = new AtomicInteger();
+        final FolderWatcher watcher = new FolderWatcher(directory.toFile(), new Properties(), "midi", 1) {
+            @Override
+            Batch.Result sonify(File file) {
+                renders.incrementAndGet();
+                return new Batch.Result(file);
+            }
+        };
+        Thread watching = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watcher.watch();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "Watcher");
+        watching.start();
+        try {
+            // Let the watcher register the directory
+            Thread.sleep(DEBOUNCE_MILLIS);
+
+            // Saves closer together than the debounce time
+            for (int save = 0; save < 5; save++) {
+                Files.write(text, ("Draft " + save + ".").getBytes(StandardCharsets.UTF_8));
+                Thread.sleep(DEBOUNCE_MILLIS / 5);
+            }
+            Thread.sleep(DEBOUNCE_MILLIS * 3);
+            TestSupport.assertEquals(1, renders.get(), "renders after the first saves");
+
+            // Saved again without changes
+            Files.write(text, "Draft 4.".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(DEBOUNCE_MILLIS * 3);
+            TestSupport.assertEquals(1, renders.get(), "renders after an unchanged save");
+
+            // A later change is sonified again
+            Files.write(text, "Final draft.".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(DEBOUNCE_MILLIS * 3);
+            TestSupport.assertEquals(2, renders.get(), "renders after a later change");
+        } finally {
+            watching.interrupt();
+            watching.join();
+            Files.deleteIfExists(text);
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.gtwm.sound;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Requests beyond the workers and the queue are turned away with 429 straight away, and requests from web pages
+ * or with serialized instructions are refused.
+ */
+public class HttpServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        fullQueueAnswers429();
+        webPagesAreRefused();
+        serializedInstructionsAreRefused();
+        System.out.println("HttpServiceTest passed");
+    }
+
+    static void fullQueueAnswers429() throws IOException {
+        // One worker and room for one more request
+        HttpService service = new HttpService(0, 1, 1);
+        service.start();
+        Socket working = null;
+        Socket waiting = null;
+        try {
+            // The worker waits for the rest of the first body, the second request waits in the queue
+            working = partialPost(service.getPort());
+            waitFor(service, "\"active\":1,\"queued\":0");
+            waiting = partialPost(service.getPort());
+            waitFor(service, "\"active\":1,\"queued\":1");
+
+            try (Socket rejected = new Socket(InetAddress.getLoopbackAddress(), service.getPort())) {
+                rejected.setSoTimeout(10000);
+                byte[] body = "Hello.".getBytes(StandardCharsets.UTF_8);
+                OutputStream out = rejected.getOutputStream();
+                out.write(("POST /midi HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+                BufferedReader in = new BufferedReader(new InputStreamReader(rejected.getInputStream(), StandardCharsets.US_ASCII));
+                String status = in.readLine();
+                TestSupport.check(status != null && status.startsWith("HTTP/1.1 429"), "status: " + status);
+            }
+            TestSupport.check(service.metrics().contains("\"rejected\":1"), "metrics: " + service.metrics());
+        } finally {
+            if (working != null) {
+                working.close();
+            }
+            if (waiting != null) {
+                waiting.close();
+            }
+            service.stop();
+        }
+    }
+
+    static void webPagesAreRefused() throws IOException {
+        HttpService service = new HttpService(0, 1, 1);
+        service.start();
+        try {
+            String status = post(service.getPort(), "/midi", "Origin: http://example.com\r\n");
+            TestSupport.check(status != null && status.startsWith("HTTP/1.1 403"), "status: " + status);
+        } finally {
+            service.stop();
+        }
+    }
+
+    static void serializedInstructionsAreRefused() throws IOException {
+        HttpService service = new HttpService(0, 1, 1);
+        service.start();
+        try {
+            String instructions = SettingsFile.serialize(TestSupport.builder().build().getInstructions());
+            String status = post(service.getPort(), "/midi?instructions=" + URLEncoder.encode(instructions, "UTF-8"), "");
+            TestSupport.check(status != null && status.startsWith("HTTP/1.1 400"), "status: " + status);
+            status = post(service.getPort(), "/midi?lexicons=rO0", "");
+            TestSupport.check(status != null && status.startsWith("HTTP/1.1 400"), "status: " + status);
+        } finally {
+            service.stop();
+        }
+    }
+
+    /**
+     * @param port
+     * @param path
+     * @param headers extra header lines, each ending with CRLF
+     * @return status line of the response
+     * @throws IOException
+     */
+    private static String post(int port, String path, String headers) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10000);
+            byte[] body = "Hello.".getBytes(StandardCharsets.UTF_8);
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST " + path + " HTTP/1.1\r\nHost: localhost\r\n" + headers + "Content-Length: " + body.length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+        }
+    }
+
+    private static void waitFor(HttpService service, String metric) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!service.metrics().contains(metric)) {
+            TestSupport.check(System.currentTimeMillis() < deadline, "metrics: " + service.metrics());
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * POST that promises a longer body than it sends, so the request is not finished
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    private static Socket partialPost(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        OutputStream out = socket.getOutputStream();
+        out.write("POST /midi HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\nHello"
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+}
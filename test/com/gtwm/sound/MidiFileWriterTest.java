@@ -0,0 +1,77 @@
+package com.gtwm.sound;
+
+import javax.sound.midi.MidiSystem;
+import java.io.File;
+import java.util.List;
+
+/**
+ * A MIDI file written from the composed messages reads back with the same events as the composition.
+ */
+public class MidiFileWriterTest {
+
+    public static void main(String[] args) throws Exception {
+        fileMatchesBuffer();
+        spilledTracksMatchBuffer();
+        streamedFileMatchesWholeComposition();
+        System.out.println("MidiFileWriterTest passed");
+    }
+
+    static void fileMatchesBuffer() throws Exception {
+        NoteBuffer buffer = compose();
+        File file = File.createTempFile("singling", ".mid");
+        try {
+            MidiFileWriter.write(buffer, file);
+            TestSupport.assertEquals(TestSupport.events(buffer.toSequence()),
+                    TestSupport.events(MidiSystem.getSequence(file)), "events read back");
+        } finally {
+            file.delete();
+        }
+    }
+
+    static void spilledTracksMatchBuffer() throws Exception {
+        NoteBuffer buffer = compose();
+        File file = File.createTempFile("singling", ".mid");
+        System.setProperty("singling.midiSpillSize", "64");
+        try {
+            MidiFileWriter.write(buffer, file);
+            TestSupport.assertEquals(TestSupport.events(buffer.toSequence()),
+                    TestSupport.events(MidiSystem.getSequence(file)), "events read back from temporary files");
+        } finally {
+            System.clearProperty("singling.midiSpillSize");
+            file.delete();
+        }
+    }
+
+    /**
+     * Sentences written out as they are composed, up to the composer's earliest tick each time
+     * @throws Exception
+     */
+    static void streamedFileMatchesWholeComposition() throws Exception {
+        NoteBuffer whole = compose();
+        File file = File.createTempFile("singling", ".mid");
+        try {
+            Composer composer = TestSupport.builder().build();
+            NoteBuffer.Reader notes = ((MidiScoreWriter) composer.getScore()).getBuffer().reader();
+            MidiFileWriter writer = new MidiFileWriter(file);
+            for (int sentence = 0; sentence < 30; sentence++) {
+                composer.composeTokens(TestSupport.tokens(TestSupport.sentence(sentence)), null);
+                notes.drain(writer);
+                writer.flush(composer.getEarliestTick());
+            }
+            writer.finish();
+            TestSupport.assertEquals(TestSupport.events(whole.toSequence()),
+                    TestSupport.events(MidiSystem.getSequence(file)), "events written while composing");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static NoteBuffer compose() {
+        Composer composer = TestSupport.builder().build();
+        composer.composeTokens(TestSupport.text(30), null);
+        NoteBuffer buffer = ((MidiScoreWriter) composer.getScore()).getBuffer();
+        List<String> events = TestSupport.events(buffer.toSequence());
+        TestSupport.check(events.size() > 100, "too few events: " + events.size());
+        return buffer;
+    }
+}
@@ -0,0 +1,36 @@
+package com.gtwm.sound;
+
+/**
+ * The earliest tick a score can still write at follows the voices that carry on from their cursor,
+ * not the ones left idle.
+ */
+public class MidiScoreWriterTest {
+
+    public static void main(String[] args) {
+        idleVoicesDoNotHoldBackEarliestTick();
+        System.out.println("MidiScoreWriterTest passed");
+    }
+
+    static void idleVoicesDoNotHoldBackEarliestTick() {
+        MidiScoreWriter score = new MidiScoreWriter("PIANO", 120);
+
+        // Voice 0 a whole note in, then a note on voice 3 at the start
+        score.voiceAt(0, 1);
+        score.note(60, 0.25, 64, 64);
+        score.voiceAt(3, 0);
+        score.note(64, 0.25, 64, 64);
+        TestSupport.assertEquals(0L, score.earliestTick(2), "voice 3 note start");
+
+        // Back on voice 0, voice 3 can only come back at the current time
+        score.voice(0);
+        TestSupport.assertEquals(MidiScoreWriter.toTicks(1), score.earliestTick(2), "voice 0 note start");
+        score.note(62, 0.5, 64, 64);
+        TestSupport.assertEquals(MidiScoreWriter.toTicks(1.25), score.earliestTick(2), "voice 0 next note start");
+        TestSupport.assertEquals(MidiScoreWriter.toTicks(1), score.earliestTick(1), "time");
+
+        // The current voice carries on from its cursor even when it was entered at a time
+        score.voiceAt(5, 0.5);
+        score.note(67, 0.25, 64, 64);
+        TestSupport.assertEquals(MidiScoreWriter.toTicks(0.5), score.earliestTick(2), "current voice");
+    }
+}
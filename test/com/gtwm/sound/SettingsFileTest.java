@@ -0,0 +1,90 @@
+package com.gtwm.sound;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Settings without instructions or passing words load with none, values that cannot be read are reported,
+ * only the classes of saved settings are deserialized, and instructions can be written as text.
+ */
+public class SettingsFileTest {
+
+    public static void main(String[] args) {
+        missingValuesAreEmpty();
+        unreadableValuesAreRejected();
+        savedValuesReadBack();
+        otherClassesAreRejected();
+        rulesAreReadFromText();
+        System.out.println("SettingsFileTest passed");
+    }
+
+    static void missingValuesAreEmpty() {
+        Properties settings = new Properties();
+        TestSupport.check(SettingsFile.getInstructions(settings).isEmpty(), "instructions of empty settings");
+        TestSupport.check(SettingsFile.getPassingWords(settings).isEmpty(), "passing words of empty settings");
+
+        settings.setProperty("instructions", "");
+        settings.setProperty("lexicons", "");
+        TestSupport.check(SettingsFile.getInstructions(settings).isEmpty(), "empty instructions");
+        TestSupport.check(SettingsFile.getPassingWords(settings).isEmpty(), "empty passing words");
+    }
+
+    static void unreadableValuesAreRejected() {
+        Properties settings = new Properties();
+        settings.setProperty("instructions", "not Base64!");
+        settings.setProperty("lexicons", "bm90IHNlcmlhbGl6ZWQ=");
+        try {
+            SettingsFile.getInstructions(settings);
+            throw new AssertionError("instructions that are not Base64 were read");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SettingsFile.getPassingWords(settings);
+            throw new AssertionError("passing words that are not serialized were read");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    static void savedValuesReadBack() {
+        List<TransformationManager.Instruction> instructions = TestSupport.builder().build().getInstructions();
+        Set<String> passingWords = new HashSet<>(Arrays.asList("the", "a"));
+        Properties settings = new Properties();
+        settings.setProperty("instructions", SettingsFile.serialize(instructions));
+        settings.setProperty("lexicons", SettingsFile.serializeLexicon(passingWords));
+
+        TestSupport.assertEquals(instructions.toString(), SettingsFile.getInstructions(settings).toString(), "instructions read back");
+        TestSupport.assertEquals(passingWords, SettingsFile.getPassingWords(settings), "passing words read back");
+    }
+
+    static void otherClassesAreRejected() {
+        List<Object> list = new ArrayList<>();
+        list.add(new Date());
+        Properties settings = new Properties();
+        settings.setProperty("instructions", SettingsFile.serialize((List) list));
+        try {
+            SettingsFile.getInstructions(settings);
+            throw new AssertionError("a Date was deserialized");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    static void rulesAreReadFromText() {
+        List<TransformationManager.Instruction> instructions = SettingsFile.parseRules(
+                "# carried from sentence to sentence\n" +
+                "PUNCTUATION EQUALTO , INSTRUMENT VIOLIN SET\n" +
+                "\n" +
+                "WORDLENGTH LARGERTHAN 4 VOLUME 20000 SET\n");
+        TestSupport.assertEquals(TestSupport.builder().build().getInstructions().toString(), instructions.toString(), "rules");
+        TestSupport.assertEquals(new HashSet<>(Arrays.asList("the", "a")), SettingsFile.parseWords(" the, a\n"), "words");
+        try {
+            SettingsFile.parseRules("WORDLENGTH BIGGER 4 VOLUME 20000 SET");
+            throw new AssertionError("unknown operator was read");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
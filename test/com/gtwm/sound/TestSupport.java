@@ -0,0 +1,224 @@
+package com.gtwm.sound;
+
+import edu.mit.jwi.item.POS;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks and test data shared by the tests. Each test is a class with a main method that throws on the first failure.
+ */
+class TestSupport {
+
+    // "saw" twice with different lemmas
+    static final String SAW = "I/PRP/I saw/VBD/see the/DT/the saw/NN/saw ./././";
+
+    // verb.perception for see, verb.contact and noun.artifact for saw
+    static final String[] SAW_LEXFILES = {"see/VERB/39", "saw/VERB/35", "saw/NOUN/6"};
+
+    private TestSupport() {
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void assertEquals(Object expected, Object actual, String message) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Token table without running CoreNLP, every token and sentence is neutral
+     * @param sentences one per sentence, tokens separated by spaces and written as word/POS/lemma
+     * @return
+     */
+    static TokenTable tokens(String... sentences) {
+        List<String[]> tokens = new ArrayList<>();
+        int[] starts = new int[sentences.length];
+        for (int s = 0; s < sentences.length; s++) {
+            starts[s] = tokens.size();
+            for (String token : sentences[s].split(" ")) {
+                tokens.add(token.split("/"));
+            }
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(tokens.size());
+            out.writeInt(sentences.length);
+            for (int start : starts) {
+                out.writeInt(start);
+                out.writeByte(2);
+            }
+            for (String[] token : tokens) {
+                out.writeUTF(token[0]);
+                out.writeUTF(token[1]);
+                out.writeUTF(token[2]);
+                out.writeByte(2);
+            }
+            out.flush();
+            return TokenTable.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * LGC index holding only the given entries, so words can be looked up without the WordNet dictionary
+     * @param entries written as lemma/POS/lexicographer file, for example see/VERB/39
+     * @return
+     */
+    static LexIndex lexIndex(String... entries) {
+        int capacity = 64;
+        long[] hashes = new long[capacity];
+        long[] masks = new long[capacity];
+        for (String entry : entries) {
+            String[] fields = entry.split("/");
+            long hash = LexIndex.hash(fields[0], POS.valueOf(fields[1]));
+            int slot = (int) hash & (capacity - 1);
+            while (hashes[slot] != 0 && hashes[slot] != hash) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            hashes[slot] = hash;
+            masks[slot] |= 1L << Integer.parseInt(fields[2]);
+        }
+        try {
+            File file = File.createTempFile("singling-lgc", ".idx");
+            file.deleteOnExit();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(LexIndex.MAGIC);
+                out.writeInt(LexIndex.VERSION);
+                out.writeInt(capacity);
+                out.writeInt(entries.length);
+                for (int slot = 0; slot < capacity; slot++) {
+                    out.writeLong(hashes[slot]);
+                    out.writeLong(masks[slot]);
+                }
+            }
+            return LexIndex.open(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Settings used by the composition tests, with rules that carry an instrument from sentence to sentence
+     * and push the volume out of its range
+     * @return
+     */
+    static Composer.ComposerBuilder builder() {
+        List<TransformationManager.Instruction> instructions = new ArrayList<>();
+        instructions.add(new TransformationManager.Instruction(TransformationManager.Instruction.Mods.PUNCTUATION,
+                TransformationManager.Instruction.ModOperators.EQUALTO, ",",
+                TransformationManager.Instruction.SoundMods.INSTRUMENT, "VIOLIN",
+                TransformationManager.Instruction.ChangeModes.SET, null,
+                TransformationManager.Instruction.InstructionStatus.ACTIVE));
+        instructions.add(new TransformationManager.Instruction(TransformationManager.Instruction.Mods.WORDLENGTH,
+                TransformationManager.Instruction.ModOperators.LARGERTHAN, "4",
+                TransformationManager.Instruction.SoundMods.VOLUME, "20000",
+                TransformationManager.Instruction.ChangeModes.SET, null,
+                TransformationManager.Instruction.InstructionStatus.ACTIVE));
+        return new Composer.ComposerBuilder()
+                .setInstrument("PIANO")
+                .setNoteLength(0.25)
+                .setOctave(3)
+                .setTempo(120)
+                .setFrequency(128)
+                .setRestLength(0.0625)
+                .setRestLengthLineBreak(0.125)
+                .wantWord(true)
+                .withOperation("LEXNAMEFREQ")
+                .withOrdering(0)
+                .useTransformations(instructions)
+                .excludeWords(new HashSet<String>())
+                .withBackend(ScoreWriter.Backend.MIDI);
+    }
+
+    /**
+     * Sentences of words that are not looked up in WordNet
+     * @param count
+     * @return
+     */
+    static TokenTable text(int count) {
+        String[] sentences = new String[count];
+        for (int s = 0; s < count; s++) {
+            sentences[s] = sentence(s);
+        }
+        return tokens(sentences);
+    }
+
+    /**
+     * @param index
+     * @return sentence of the test text, as passed to tokens()
+     */
+    static String sentence(int index) {
+        switch (index % 3) {
+            case 0: return "In/IN/in this/DT/this ,/,/, we/PRP/we can/MD/can ./././";
+            case 1: return "Of/IN/of those/DT/those whose/WP$/whose ;/:/; that/IN/that ./././";
+            default: return "Whenever/WRB/whenever they/PRP/they ,/,/, whichever/WDT/whichever !/./!";
+        }
+    }
+
+    /**
+     * Compose the text on its own, as separate sentences joined in order
+     * @param builder
+     * @param tokens
+     * @param parallel
+     * @return the score's MIDI events
+     */
+    static List<String> compose(Composer.ComposerBuilder builder, TokenTable tokens, boolean parallel) {
+        Composer composer = builder.build();
+        composer.composeTokens(tokens, parallel ? ForkJoinPool.commonPool() : null);
+        return events(composer.getSequence());
+    }
+
+    /**
+     * Compose the text on its own, one sentence after another straight into the score
+     * @param tokens
+     * @return the score's MIDI events
+     */
+    static List<String> composeInOrder(TokenTable tokens) {
+        Composer composer = builder().build();
+        composer.compileRules();
+        composer.composeSentences(tokens);
+        return events(composer.getSequence());
+    }
+
+    /**
+     * Events of every track as track, tick and message bytes, in track order
+     * @param sequence
+     * @return
+     */
+    static List<String> events(Sequence sequence) {
+        List<String> events = new ArrayList<>();
+        Track[] tracks = sequence.getTracks();
+        for (int t = 0; t < tracks.length; t++) {
+            for (int e = 0; e < tracks[t].size(); e++) {
+                MidiEvent event = tracks[t].get(e);
+                byte[] message = event.getMessage().getMessage();
+                StringBuilder line = new StringBuilder().append(t).append(' ').append(event.getTick());
+                for (int b = 0; b < event.getMessage().getLength(); b++) {
+                    line.append(' ').append(Integer.toHexString(message[b] & 0xFF));
+                }
+                events.add(line.toString());
+            }
+        }
+        return events;
+    }
+}
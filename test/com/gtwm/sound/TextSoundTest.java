@@ -0,0 +1,55 @@
+package com.gtwm.sound;
+
+import org.jfugue.pattern.Pattern;
+
+/**
+ * A word that appears more than once in a sentence is sonified with the POS tag and lemma of each occurrence,
+ * not those of the first one.
+ */
+public class TextSoundTest {
+
+    public static void main(String[] args) {
+        repeatedWordKeepsItsOwnPosTag();
+        repeatedWordKeepsItsOwnLemma();
+        System.out.println("TextSoundTest passed");
+    }
+
+    static void repeatedWordKeepsItsOwnPosTag() {
+        // "that" as a preposition and then as a determiner, neither is looked up in WordNet
+        TokenTable tokens = TestSupport.tokens("of/IN/of that/IN/that that/DT/that ./././");
+        // Word sentiment without running CoreNLP
+        for (String word : new String[] {"of", "that", "."}) {
+            SentimentService.getInstance().getWordCache().put(word, 2);
+        }
+
+        TextSound.perWord = true;
+        String staccato = TextSound.processTokens(tokens, new Pattern()).toString().replaceAll("\\s+", " ");
+
+        int preposition = staccato.indexOf("'(that) #(SA[2], LGC[48], POS[I])");
+        int determiner = staccato.indexOf("'(that) #(SA[2], LGC[46], POS[D])");
+        TestSupport.check(preposition >= 0, "first that is not a preposition: " + staccato);
+        TestSupport.check(determiner > preposition, "second that is not a determiner: " + staccato);
+    }
+
+    static void repeatedWordKeepsItsOwnLemma() {
+        // "saw" as the past of "see" and then as the tool, each lemma has its own LGC
+        WordNet.getInstance().setLexIndex(TestSupport.lexIndex(TestSupport.SAW_LEXFILES));
+        TokenTable tokens = TestSupport.tokens(TestSupport.SAW);
+        for (String word : new String[] {"I", "saw", "the", "."}) {
+            SentimentService.getInstance().getWordCache().put(word, 2);
+        }
+
+        TextSound.perWord = true;
+        String staccato;
+        try {
+            staccato = TextSound.processTokens(tokens, new Pattern()).toString().replaceAll("\\s+", " ");
+        } finally {
+            WordNet.getInstance().setLexIndex(null);
+        }
+
+        int verb = staccato.indexOf("'(saw) #(SA[2], LGC[39], POS[V])");
+        int noun = staccato.indexOf("'(saw) #(SA[2], LGC[6], POS[N])");
+        TestSupport.check(verb >= 0, "first saw is not looked up as see: " + staccato);
+        TestSupport.check(noun > verb, "second saw is not looked up as saw: " + staccato);
+    }
+}